@@ -0,0 +1,24 @@
+plugins {
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+dependencies {
+    jmh(project(":server"))
+    jmh(project(":common"))
+}
+
+// ./gradlew :bench:jmh                                  — все бенчмарки
+// ./gradlew :bench:jmh -Pjmh.includes=CaptureBench     — только выбранные (регулярное выражение)
+// ./gradlew :bench:jmh -Pjmh.params="players=4;shape=comb"
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+    (project.findProperty("jmh.params") as String?)?.let { p ->
+        benchmarkParameters.set(p.split(";").associate { kv ->
+            val (k, v) = kv.split("=", limit = 2)
+            k to project.objects.listProperty(String::class.java).value(v.split(","))
+        })
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.RoomProfile;
+import com.example.paperfx.common.RoomSim;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Синтетические комнаты для бенчмарков: боты {@link SimBot} в режиме петель
+ * (каждый в своей части поля, без смертей и обращений к БД).
+ */
+
+final class BenchRooms {
+    private BenchRooms() {}
+
+    /**
+     * Профиль для поля {@code WxH}: стандартный, если такой есть (80x60 — classic, 240x180 — arena, 400x400 — huge),
+     * иначе профиль с этим полем и наибольшей вместимостью (1000x1000 — только для замеров, клиент такое не показывает).
+     */
+    static RoomProfile profile(String grid) {
+        String[] wh = grid.split("x");
+        if (wh.length != 2) throw new IllegalArgumentException("grid must be WxH: " + grid);
+        int w = Integer.parseInt(wh[0].trim()), h = Integer.parseInt(wh[1].trim());
+        for (RoomProfile p : RoomProfile.ALL) {
+            if (p.gridW() == w && p.gridH() == h && p.tickMs() == RoomProfile.BASE_TICK_MS) return p;
+        }
+        return new RoomProfile("bench", RoomSim.CELL, w, h, RoomProfile.MAX_CAPACITY, RoomProfile.BASE_TICK_MS);
+    }
+
+    /** Комната с {@code players} ботами; петля каждого — квадрат со стороной {@code loop} клеток. */
+    static Room room(ServerMain server, RoomProfile profile, int players, int loop, List<SimBot> botsOut) {
+        Room room = new Room(server, "BENCH-" + UUID.randomUUID(), false, profile);
+        botsOut.addAll(SimBot.fill(room, players, loop, null));
+        return room;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.paperfx.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ServerMain#bresenham} на отрезках разной длины (за тик игрок проходит 1–2 клетки).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BresenhamBench {
+    @Param({"1", "2", "16", "80"})
+    public int length;
+
+    private int i = 0;
+
+    @Benchmark
+    public List<int[]> line() {
+        int x0 = (i++ & 7);
+        return ServerMain.bresenham(x0, 3, x0 + length, 3 + length / 3);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.RoomProfile;
+import com.example.paperfx.common.RoomSim;
+import com.example.paperfx.common.SimPlayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RoomSim#captureLoopOverwrite} на следах разной формы.
+ * <p>
+ * Перед каждым вызовом симуляция восстанавливается из заранее собранного ключевого кадра
+ * (территория игрока и незамкнутый след), восстановление в замер не входит.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CaptureBench {
+    @Param({"80x60", "240x180", "1000x1000"})
+    public String grid;
+
+    /** rect — квадратная петля, comb — «гребёнка» с зубцами, strip — длинная полоса в одну клетку. */
+    @Param({"rect", "comb", "strip"})
+    public String shape;
+
+    /** Размер петли в клетках. */
+    @Param({"10", "40"})
+    public int size;
+
+    private Messages.Keyframe kf;
+    private RoomSim sim;
+    private SimPlayer p;
+
+    @Setup(Level.Trial)
+    public void build() {
+        RoomProfile profile = BenchRooms.profile(grid);
+        int w = profile.gridW();
+
+        // Территория 7×7 с углом в (5, 5); след начинается справа от неё и возвращается к ней.
+        int[] owners = new int[w * profile.gridH()];
+        for (int y = 5; y <= 11; y++) for (int x = 5; x <= 11; x++) owners[y * w + x] = 1;
+
+        List<Messages.Cell> t = new ArrayList<>();
+        int s = size;
+        switch (shape) {
+            case "rect" -> {
+                t.add(new Messages.Cell(12, 8));
+                t.add(new Messages.Cell(12 + s, 8));
+                t.add(new Messages.Cell(12 + s, 8 + s));
+                t.add(new Messages.Cell(8, 8 + s));
+                t.add(new Messages.Cell(8, 12));
+            }
+            case "comb" -> {
+                int x = 12;
+                t.add(new Messages.Cell(x, 8));
+                while (x + 2 <= 12 + s) {
+                    t.add(new Messages.Cell(x, 8 + s));
+                    t.add(new Messages.Cell(x + 2, 8 + s));
+                    t.add(new Messages.Cell(x + 2, 8));
+                    t.add(new Messages.Cell(x + 4, 8));
+                    x += 4;
+                }
+                t.add(new Messages.Cell(x, 8 + s + 2));
+                t.add(new Messages.Cell(8, 8 + s + 2));
+                t.add(new Messages.Cell(8, 12));
+            }
+            case "strip" -> {
+                int end = Math.min(w - 2, 12 + s);
+                t.add(new Messages.Cell(12, 6));
+                t.add(new Messages.Cell(end, 6));
+                t.add(new Messages.Cell(end, 8));
+                t.add(new Messages.Cell(12, 8));
+            }
+            default -> throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+        Messages.Cell last = t.get(t.size() - 1);
+
+        Messages.SimPlayerState ps = new Messages.SimPlayerState();
+        ps.playerId = "p1";
+        ps.idx = 1;
+        ps.username = "bench";
+        ps.color = "#4CC9F0";
+        ps.cellX = last.x;
+        ps.cellY = last.y;
+        ps.x = last.x * profile.cell();
+        ps.y = last.y * profile.cell();
+        ps.trail = t;
+
+        kf = new Messages.Keyframe();
+        kf.roomId = "BENCH";
+        kf.cellSize = profile.cell();
+        kf.gridW = w;
+        kf.gridH = profile.gridH();
+        kf.capacity = profile.capacity();
+        kf.stepMs = profile.tickMs();
+        kf.owners = owners;
+        kf.players = List.of(ps);
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() {
+        sim = RoomSim.fromKeyframe(kf);
+        p = sim.player(1);
+    }
+
+    @Benchmark
+    public int capture() {
+        sim.captureLoopOverwrite(p);
+        return sim.countTerritoryCells(1);
+    }
+}
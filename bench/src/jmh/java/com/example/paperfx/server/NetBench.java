@@ -0,0 +1,31 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор входящих строк {@code input} так, как это делает {@code ServerMain.onMessage}: дерево + чтение полей.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NetBench {
+    private final String[] lines = {
+            "{\"type\":\"input\",\"dx\":1,\"dy\":0,\"seq\":17}",
+            "{\"type\":\"input\",\"dx\":0,\"dy\":-1,\"seq\":18}",
+            "{\"type\":\"input\",\"dx\":-1,\"dy\":0,\"seq\":1234567}",
+            "{\"type\":\"input\",\"dx\":0,\"dy\":0}"
+    };
+    private int i = 0;
+
+    @Benchmark
+    public int parseInput() throws Exception {
+        JsonNode n = Net.parse(lines[i++ & 3]);
+        String type = n.path("type").asText("");
+        return type.length() + n.path("dx").asInt(0) + n.path("dy").asInt(0) + (int) n.path("seq").asLong(0);
+    }
+}
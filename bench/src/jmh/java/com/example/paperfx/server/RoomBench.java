@@ -0,0 +1,52 @@
+package com.example.paperfx.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Шаг комнаты и рассылка state на синтетической комнате с ботами (без соединений и БД).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoomBench {
+    @Param({"80x60", "240x180", "1000x1000"})
+    public String grid;
+
+    @Param({"1", "2", "4", "16"})
+    public int players;
+
+    /** Сторона петли бота в клетках: чем больше, тем длиннее след и крупнее захват. */
+    @Param({"6", "12"})
+    public int loop;
+
+    private Room room;
+    private List<SimBot> bots;
+    private long tick = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bots = new ArrayList<>();
+        room = BenchRooms.room(new ServerMain((Storage) null), BenchRooms.profile(grid), players, loop, bots);
+    }
+
+    @Benchmark
+    public int step() {
+        for (SimBot b : bots) b.steer();
+        room.step();
+        return room.sim.owners.get(0);
+    }
+
+    /** Шаг и рассылка: сборка state и сериализация в JSON (получателей нет, отправка не измеряется). */
+    @Benchmark
+    public int stepAndBroadcast() {
+        for (SimBot b : bots) b.steer();
+        room.step();
+        room.broadcastState(++tick);
+        return room.sim.owners.get(0);
+    }
+}
@@ -19,3 +19,13 @@ javafx {
 application {
     mainClass.set("com.example.paperfx.client.ClientMain")
 }
+
+// Headless-бенчмарк пути state → кадр (без JavaFX): ./gradlew :client:renderBench -PbenchArgs="--players 4,64"
+tasks.register<JavaExec>("renderBench") {
+    group = "verification"
+    description = "Runs the headless state decode / territory layer benchmark"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.paperfx.client.RenderBench")
+    val benchArgs = project.findProperty("benchArgs") as String?
+    if (benchArgs != null) args(benchArgs.split(" ").filter { it.isNotBlank() })
+}
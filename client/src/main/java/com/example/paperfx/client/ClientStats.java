@@ -0,0 +1,83 @@
+package com.example.paperfx.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики производительности клиента для отладочного оверлея (F3) и headless-бенчмарка.
+ * <p>
+ * Время кадра и отрисовки сглаживаются (EWMA) на FX thread; потоки, трафик и декодирование
+ * пересчитываются в «в секунду» раз в секунду по счётчикам {@link StateDecoder}.
+ */
+
+final class ClientStats {
+    private static final double EWMA = 0.1;
+
+    /** Принято байт из сокета (сетевой поток). */
+    final AtomicLong bytesIn = new AtomicLong();
+
+    /** Оценки сервера из последнего ping: сглаженный RTT и смещение наших часов, мс (сетевой поток). */
+    volatile double rttMs = 0;
+    volatile double clockOffsetMs = 0;
+
+    private long lastFrameNs = 0;
+    double frameMs = 0;
+    double renderMs = 0;
+    double renderMaxMs = 0;
+
+    private long windowNs = 0;
+    private long prevDecoded, prevDropped, prevBytes, prevDecodeNs;
+    double statesPerSec = 0;
+    double droppedPerSec = 0;
+    double bytesPerSec = 0;
+    double decodeUs = 0;
+    long droppedTotal = 0;
+
+    /** Кадр начался в {@code frameStartNs}, отрисовка заняла {@code renderNs}. */
+    void onFrame(long frameStartNs, long renderNs) {
+        if (lastFrameNs != 0) frameMs = ewma(frameMs, (frameStartNs - lastFrameNs) / 1e6);
+        lastFrameNs = frameStartNs;
+        double r = renderNs / 1e6;
+        renderMs = ewma(renderMs, r);
+        renderMaxMs = Math.max(renderMaxMs * 0.995, r);
+    }
+
+    /** Раз в секунду пересчитывает скорости по счётчикам декодера. */
+    void sample(long nowNs, StateDecoder dec) {
+        if (windowNs == 0) windowNs = nowNs;
+        long dt = nowNs - windowNs;
+        if (dt < 1_000_000_000L) return;
+
+        long decoded = dec.decoded.get(), dropped = dec.dropped.get();
+        long bytes = bytesIn.get(), decodeNs = dec.decodeNanos.get();
+        double sec = dt / 1e9;
+
+        statesPerSec = (decoded - prevDecoded) / sec;
+        droppedPerSec = (dropped - prevDropped) / sec;
+        bytesPerSec = (bytes - prevBytes) / sec;
+        decodeUs = (decoded == prevDecoded) ? 0 : (decodeNs - prevDecodeNs) / 1e3 / (decoded - prevDecoded);
+        droppedTotal = dropped;
+
+        prevDecoded = decoded;
+        prevDropped = dropped;
+        prevBytes = bytes;
+        prevDecodeNs = decodeNs;
+        windowNs = nowNs;
+    }
+
+    List<String> lines() {
+        List<String> out = new ArrayList<>();
+        out.add(String.format("frame %.1f ms (%.0f fps)", frameMs, frameMs > 0 ? 1000 / frameMs : 0));
+        out.add(String.format("render %.2f ms, max %.2f ms", renderMs, renderMaxMs));
+        out.add(String.format("decode %.0f us/state", decodeUs));
+        out.add(String.format("states %.1f/s, dropped %.1f/s (%d)", statesPerSec, droppedPerSec, droppedTotal));
+        out.add(String.format("net in %.1f KB/s", bytesPerSec / 1024));
+        out.add(rttMs > 0 ? String.format("rtt %.0f ms, clock offset %+.0f ms", rttMs, clockOffsetMs) : "rtt -");
+        return out;
+    }
+
+    private static double ewma(double avg, double v) {
+        return (avg == 0) ? v : avg + (v - avg) * EWMA;
+    }
+}
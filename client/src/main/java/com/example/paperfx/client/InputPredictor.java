@@ -0,0 +1,127 @@
+package com.example.paperfx.client;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.RoomSim;
+
+import java.util.ArrayDeque;
+
+/**
+ * Предсказание движения своего игрока на клиенте (client-side prediction) и сверка с сервером.
+ * <p>
+ * Каждое новое направление получает номер {@code seq}. Сервер в state возвращает, какой {@code seq} действовал
+ * на последнем шаге ({@link Messages.Player#ackSeq}) и сколько шагов он уже применён ({@link Messages.Player#ackTicks}).
+ * Позиция «сейчас» = позиция сервера + то, что сервер ещё не применил: остаток подтверждённого направления
+ * и все более поздние направления — по тем же правилам, что и {@code RoomSim} (скорость, границы поля).
+ * Расхождение со старым предсказанием не применяется рывком, а плавно гасится.
+ */
+
+final class InputPredictor {
+    /** За сколько примерно гасится ошибка предсказания. */
+    private static final double SMOOTH_SEC = 0.1;
+    private static final int HISTORY_MAX = 64;
+
+    // Параметры комнаты (см. configure): границы поля и длительность шага.
+    /** Расхождение больше этого (смерть, респаун) — без сглаживания. */
+    private double snapPx = RoomSim.CELL * 4;
+    private double maxX = RoomSim.GRID_W * (double) RoomSim.CELL - RoomSim.PLAYER_SIZE;
+    private double maxY = RoomSim.GRID_H * (double) RoomSim.CELL - RoomSim.PLAYER_SIZE;
+    private double stepSec = RoomSim.STEP_SEC;
+
+    private record Entry(long seq, int dx, int dy, long startNs) {}
+
+    private final ArrayDeque<Entry> history = new ArrayDeque<>();
+    private long seq = 0;
+
+    // База сверки: позиция сервера и подтверждённый ввод из последнего state.
+    private boolean hasBase = false;
+    private double baseX, baseY;
+    private long ackSeq;
+    private long ackTicks;
+
+    private double errX, errY;
+    private long errNs;
+
+    /** Номер текущего направления; увеличивается, только когда направление меняется. */
+    long seqFor(int dx, int dy, long nowNs) {
+        Entry last = history.peekLast();
+        if (last == null || last.dx != dx || last.dy != dy) {
+            history.addLast(new Entry(++seq, dx, dy, nowNs));
+            while (history.size() > HISTORY_MAX) history.pollFirst();
+        }
+        return seq;
+    }
+
+    /** Новый state: переносим базу на позицию сервера, расхождение со старым предсказанием уходит в сглаживание. */
+    void reconcile(Messages.Player me, long nowNs) {
+        double[] before = hasBase ? predict(nowNs) : null;
+
+        hasBase = true;
+        baseX = me.x;
+        baseY = me.y;
+        ackSeq = me.ackSeq;
+        ackTicks = me.ackTicks;
+        while (!history.isEmpty() && history.peekFirst().seq < ackSeq) history.pollFirst();
+
+        double[] after = predict(nowNs);
+        if (before != null) {
+            double[] shown = withError(before, nowNs);
+            errX = shown[0] - after[0];
+            errY = shown[1] - after[1];
+            if (Math.abs(errX) + Math.abs(errY) > snapPx) { errX = 0; errY = 0; }
+        }
+        errNs = nowNs;
+    }
+
+    /** Позиция своего игрока на момент {@code nowNs} или {@code null}, если сверять пока не с чем. */
+    double[] position(long nowNs) {
+        if (!hasBase) return null;
+        return withError(predict(nowNs), nowNs);
+    }
+
+    /** Поле и период шага комнаты из {@code room_joined}. */
+    void configure(int cell, int gridW, int gridH, long tickMs) {
+        snapPx = cell * 4;
+        maxX = gridW * (double) cell - RoomSim.PLAYER_SIZE;
+        maxY = gridH * (double) cell - RoomSim.PLAYER_SIZE;
+        stepSec = tickMs / 1000.0;
+    }
+
+    void reset() {
+        hasBase = false;
+        history.clear();
+        errX = 0;
+        errY = 0;
+    }
+
+    private double[] predict(long nowNs) {
+        double x = baseX, y = baseY;
+        Entry prev = null;
+        for (Entry e : history) {
+            if (e.seq < ackSeq) continue;
+            if (prev != null) {
+                double sec = (e.startNs - prev.startNs) / 1e9;
+                if (prev.seq == ackSeq) sec -= ackTicks * stepSec;
+                x = move(x, prev.dx, sec, maxX);
+                y = move(y, prev.dy, sec, maxY);
+            }
+            prev = e;
+        }
+        if (prev != null) {
+            double sec = (nowNs - prev.startNs) / 1e9;
+            if (prev.seq == ackSeq) sec -= ackTicks * stepSec;
+            x = move(x, prev.dx, sec, maxX);
+            y = move(y, prev.dy, sec, maxY);
+        }
+        return new double[]{x, y};
+    }
+
+    private double[] withError(double[] pos, long nowNs) {
+        double k = Math.exp(-Math.max(0, nowNs - errNs) / 1e9 / SMOOTH_SEC);
+        return new double[]{pos[0] + errX * k, pos[1] + errY * k};
+    }
+
+    private static double move(double v, int dir, double sec, double max) {
+        if (sec <= 0 || dir == 0) return v;
+        return RoomSim.clamp(v + dir * RoomSim.PLAYER_SPEED * sec, 0, max);
+    }
+}
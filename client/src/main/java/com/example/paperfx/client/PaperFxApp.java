@@ -2,6 +2,8 @@ package com.example.paperfx.client;
 
 import com.example.paperfx.common.Messages;
 import com.example.paperfx.common.Net;
+import com.example.paperfx.common.RoomProfile;
+import com.example.paperfx.common.RoomSim;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import javafx.animation.AnimationTimer;
@@ -14,6 +16,8 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
@@ -40,7 +44,15 @@ public final class PaperFxApp extends Application {
     private BufferedReader in;
     private PrintWriter out;
     private Thread readerThread;
-    private final ConcurrentLinkedQueue<String> inbox = new ConcurrentLinkedQueue<>();
+    // PAPERFX_RECORD=<файл>: входящие строки пишутся как есть (для RenderBench --file).
+    private Writer recorder;
+    // События (всё, кроме state) разбираются на сетевом потоке и идут в UI по порядку.
+    private final ConcurrentLinkedQueue<JsonNode> inbox = new ConcurrentLinkedQueue<>();
+    // state декодируются на сетевом потоке; UI забирает только последний.
+    private final StateDecoder stateDecoder = new StateDecoder();
+    // Счётчики для отладочного оверлея (F3).
+    private final ClientStats stats = new ClientStats();
+    private boolean showDebug = false;
 
     // ---- ui ----
     private Stage stage;
@@ -56,12 +68,19 @@ public final class PaperFxApp extends Application {
     private Canvas canvas;
     private ListView<String> chatView;
     private ObservableList<String> chatItems = FXCollections.observableArrayList();
+    private static final int CHAT_MAX_LINES = 200;
+    // Сообщения чата, пришедшие за текущий кадр (FX thread).
+    private final List<String> chatBatch = new ArrayList<>();
     private TextField chatInput;
     private Label roomLabel;
     private TableView<LeaderRow> leaderboard;
+    // Строки лидерборда переиспользуются между state; список пересобирается только при смене порядка.
+    private final ObservableList<LeaderRow> leaderRows = FXCollections.observableArrayList();
 
     private TextField roomIdField;
     private Button btnSpectatePlay;
+    private CheckBox cbLockstep;
+    private ComboBox<String> cbProfile;
 
     // интерфейс профиля
     private HBox profileWidget;
@@ -74,10 +93,30 @@ public final class PaperFxApp extends Application {
 
     private volatile boolean isSpectator = false;
 
+    // ---- отрисовка ----
+    private static final Color BG_COLOR = Color.web("#2b2b2b");
+    private static final Color SHADOW_COLOR = Color.color(0, 0, 0, 0.30);
+    private final HashMap<String, Color> colorCache = new HashMap<>();
+    private WritableImage gridImage;
+    private WritableImage territoryImage;
+    private TerritoryLayer territory;
+    private Messages.State territoryState;
+    private int layersW, layersH, layersCell;
+    // Последние state для интерполяции игроков; позиции на текущий кадр (playerId → {x, y}).
+    private final SnapshotBuffer snapshots = new SnapshotBuffer();
+    private final HashMap<String, double[]> interpPos = new HashMap<>();
+    // Свой игрок рисуется по предсказанию, а не с задержкой интерполяции.
+    private final InputPredictor predictor = new InputPredictor();
+
     // ---- состояние ----
     private volatile Messages.State lastState;
     private volatile String myUsername = "";
     private volatile String currentRoomId = "MAIN";
+    private volatile String myPlayerId;
+
+    // Режим lockstep (экспериментальный): своя копия симуляции комнаты, которую двигают пакеты входов.
+    private volatile boolean lockstepRoom = false;
+    private RoomSim lockSim;
 
     private final AtomicBoolean running = new AtomicBoolean(false);
 
@@ -86,6 +125,14 @@ public final class PaperFxApp extends Application {
     private int desiredDx = 0;
     private int desiredDy = 0;
     private long lastInputSentNs = 0;
+    // Ввод уходит при смене направления и раз в INPUT_HEARTBEAT_NS (раньше — каждые ~33 мс).
+    private static final long INPUT_HEARTBEAT_NS = 500_000_000L;
+    private static final long INPUT_SLOT_NS = 33_000_000L;
+    private int lastSentDx = 0, lastSentDy = 0;
+    private long lastInputSlotNs = 0;
+    // Счётчики: сколько «слотов» по ~33 мс прошло под управлением и сколько input реально отправлено.
+    private long inputSlots = 0;
+    private long inputsSent = 0;
 
     // если значение ложь — игнорируем клавиши движения (например, когда печатаем в чат)
     private boolean gameControlEnabled = true;
@@ -233,6 +280,7 @@ public final class PaperFxApp extends Application {
         TableColumn<LeaderRow, Number> colScore = new TableColumn<>("Score");
         colScore.setCellValueFactory(c -> c.getValue().scoreProperty());
         leaderboard.getColumns().addAll(colName, colScore);
+        leaderboard.setItems(leaderRows);
         leaderboard.setPrefHeight(250);
 
         // чат
@@ -276,7 +324,18 @@ public final class PaperFxApp extends Application {
 
         Button btnCreateRoom = new Button("Create");
         btnCreateRoom.setMaxWidth(Double.MAX_VALUE);
-        btnCreateRoom.setOnAction(e -> sendCreateRoom(roomIdField.getText()));
+        btnCreateRoom.setOnAction(e -> sendCreateRoom(roomIdField.getText(), cbLockstep.isSelected(), cbProfile.getValue()));
+
+        cbLockstep = new CheckBox("Lockstep room (experimental)");
+
+        // Профиль новой комнаты (поле, вместимость, частота тиков) — см. RoomProfile. Поле рисуется целиком,
+        // без камеры, поэтому профили с полем больше RoomProfile.MAX_FIELD_PX не предлагаются.
+        cbProfile = new ComboBox<>();
+        for (RoomProfile p : RoomProfile.ALL) {
+            if (RoomProfile.fieldFits(p.cell(), p.gridW(), p.gridH())) cbProfile.getItems().add(p.name());
+        }
+        cbProfile.setValue(RoomProfile.CLASSIC.name());
+        cbProfile.setMaxWidth(Double.MAX_VALUE);
 
         btnSpectatePlay = new Button("Spectate");
         btnSpectatePlay.setMaxWidth(Double.MAX_VALUE);
@@ -298,6 +357,8 @@ public final class PaperFxApp extends Application {
                 new Label("Rooms"),
                 roomIdField,
                 roomBtns,
+                cbLockstep,
+                cbProfile,
                 new Label("Leaderboard"),
                 leaderboard,
                 new Label("Chat"),
@@ -335,6 +396,7 @@ public final class PaperFxApp extends Application {
 
             pressed.add(e.getCode());
 
+            if (e.getCode() == KeyCode.F3) showDebug = !showDebug;
             if (e.getCode() == KeyCode.Q) sendChat("Всем привет");
             if (e.getCode() == KeyCode.E) sendChat("Вхавха");
             if (e.getCode() == KeyCode.R) sendChat("Рачки))");
@@ -371,12 +433,21 @@ public final class PaperFxApp extends Application {
                 last = now;
 
                 pumpNetwork();
-                render();
 
-                if (gameControlEnabled && now - lastInputSentNs > 33_000_000) { // ~30 Hz
-                    sendInput(desiredDx, desiredDy);
-                    lastInputSentNs = now;
+                if (gameControlEnabled) {
+                    if (now - lastInputSlotNs > INPUT_SLOT_NS) {
+                        inputSlots++;
+                        lastInputSlotNs = now;
+                    }
+                    boolean changed = desiredDx != lastSentDx || desiredDy != lastSentDy;
+                    if (changed || now - lastInputSentNs > INPUT_HEARTBEAT_NS) sendInput(desiredDx, desiredDy);
                 }
+
+                long t0 = System.nanoTime();
+                render();
+                stats.onFrame(now, System.nanoTime() - t0);
+                stats.sample(now, stateDecoder);
+                if (showDebug) drawDebugOverlay();
             }
         };
         timer.start();
@@ -421,12 +492,19 @@ public final class PaperFxApp extends Application {
     }
 
     private void ensureConnected() throws IOException {
-        if (socket != null && socket.isConnected() && !socket.isClosed()) return;
+        // running == false — поток чтения завершился (сервер закрыл соединение, например по таймауту): переподключаемся.
+        if (socket != null && running.get() && !socket.isClosed()) return;
+        if (socket != null) try { socket.close(); } catch (IOException ignored) {}
 
         socket = new Socket("127.0.0.1", 7777);
         in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
         out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
 
+        String rec = System.getenv("PAPERFX_RECORD");
+        if (recorder == null && rec != null && !rec.isBlank()) {
+            recorder = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rec), "UTF-8"));
+        }
+
         running.set(true);
         readerThread = new Thread(this::readLoop, "net-reader");
         readerThread.setDaemon(true);
@@ -437,14 +515,39 @@ public final class PaperFxApp extends Application {
         try {
             String line;
             while (running.get() && (line = in.readLine()) != null) {
-                inbox.add(line);
+                stats.bytesIn.addAndGet(line.length() + 1L);
+                try {
+                    if (recorder != null) { recorder.write(line); recorder.write('\n'); }
+                    if (stateDecoder.offer(line)) continue;
+                    JsonNode n = Net.parse(line);
+                    if ("ping".equals(n.path("type").asText())) { answerPing(n); continue; }
+                    inbox.add(n);
+                } catch (IOException e) {
+                    // битая строка — пропускаем
+                }
             }
         } catch (IOException ignored) {
         } finally {
             running.set(false);
+            if (recorder != null) try { recorder.flush(); } catch (IOException ignored) {}
         }
     }
 
+    /**
+     * Ping сервера: отвечаем сразу из сетевого потока (не через кадр FX), иначе в RTT попадёт время до кадра.
+     * В ping сервер присылает свою оценку RTT и смещения часов — их показывает оверлей.
+     */
+    private void answerPing(JsonNode ping) {
+        ObjectNode pong = Net.MAPPER.createObjectNode();
+        pong.put("type", "pong");
+        pong.set("t", ping.path("t"));
+        pong.set("st", ping.path("st"));
+        pong.put("ct", System.currentTimeMillis());
+        sendJson(pong);
+        stats.rttMs = ping.path("rtt").asDouble(0);
+        stats.clockOffsetMs = ping.path("offset").asDouble(0);
+    }
+
     private void sendJson(ObjectNode n) {
         try {
             String line = Net.MAPPER.writeValueAsString(n);
@@ -468,7 +571,18 @@ public final class PaperFxApp extends Application {
         n.put("type", "input");
         n.put("dx", dx);
         n.put("dy", dy);
+        long now = System.nanoTime();
+        n.put("seq", predictor.seqFor(dx, dy, now));
         sendJson(n);
+        lastSentDx = dx;
+        lastSentDy = dy;
+        lastInputSentNs = now;
+        inputsSent++;
+    }
+
+    /** Сколько input не пришлось отправлять по сравнению с прежней рассылкой каждые ~33 мс. */
+    private long inputsSaved() {
+        return Math.max(0, inputSlots - inputsSent);
     }
 
     private void sendChat(String text) {
@@ -508,11 +622,22 @@ public final class PaperFxApp extends Application {
     }
 
 
-    private void sendCreateRoom(String roomId) {
+    private void sendCreateRoom(String roomId, boolean lockstep, String profile) {
         if (out == null) return;
         ObjectNode n = Net.MAPPER.createObjectNode();
         n.put("type", "create_room");
         if (roomId != null) n.put("roomId", roomId.trim());
+        if (lockstep) n.put("lockstep", true);
+        if (profile != null) n.put("profile", profile);
+        sendJson(n);
+    }
+
+    /** Lockstep: локальная симуляция разошлась с сервером (или пропущен тик) — просим ключевой кадр. */
+    private void requestResync() {
+        lockSim = null;
+        if (out == null) return;
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("type", "resync");
         sendJson(n);
     }
 
@@ -526,11 +651,10 @@ public final class PaperFxApp extends Application {
     }
 
     private void pumpNetwork() {
-        String line;
+        JsonNode n;
         int guard = 0;
-        while (guard++ < 200 && (line = inbox.poll()) != null) {
+        while (guard++ < 200 && (n = inbox.poll()) != null) {
             try {
-                JsonNode n = Net.parse(line);
                 String type = n.path("type").asText("");
 
                 switch (type) {
@@ -547,11 +671,32 @@ public final class PaperFxApp extends Application {
                     case "room_joined" -> {
                         String newRoom = n.path("roomId").asText("MAIN");
                         boolean spectator = n.path("spectator").asBoolean(false);
+                        int cell = n.path("cellSize").asInt(RoomSim.CELL);
+                        int gridW = n.path("gridW").asInt(RoomSim.GRID_W);
+                        int gridH = n.path("gridH").asInt(RoomSim.GRID_H);
+                        if (!RoomProfile.fieldFits(cell, gridW, gridH)) {
+                            // Такое поле клиент не покажет — уходим в главную комнату, прежнюю комнату не трогаем.
+                            Platform.runLater(() -> chatItems.add("[error] room " + newRoom + " is too large for this client"));
+                            sendJoinRoom("MAIN", false);
+                            break;
+                        }
 
                         boolean roomChanged = !Objects.equals(currentRoomId, newRoom);
                         currentRoomId = newRoom;
                         isSpectator = spectator;
 
+                        // Наблюдатели lockstep-комнаты получают обычный state, игроки — ключевой кадр и входы.
+                        lockstepRoom = n.path("lockstep").asBoolean(false) && !spectator;
+                        lockSim = null;
+                        long tickMs = n.path("tickMs").asLong(RoomSim.STEP_MS);
+                        if (roomChanged) {
+                            snapshots.clear(stateDecoder::recycle);
+                            snapshots.configure(tickMs, cell);
+                        }
+                        myPlayerId = spectator ? null : n.path("playerId").asText(null);
+                        predictor.configure(cell, gridW, gridH, tickMs);
+                        predictor.reset();
+
                         if (spectator) {
                             // наблюдатели не должны управлять движением
                             gameControlEnabled = false;
@@ -574,14 +719,24 @@ public final class PaperFxApp extends Application {
                         });
                     }
 
-                    case "state" -> {
-                        Messages.State st = Net.MAPPER.treeToValue(n, Messages.State.class);
-                        lastState = st;
-                        if (st.roomId != null && !st.roomId.isBlank()) currentRoomId = st.roomId;
-                        Platform.runLater(() -> {
-                            roomLabel.setText("Room: " + currentRoomId);
-                            updateLeaderboard(st);
-                        });
+                    case "keyframe" -> {
+                        if (!lockstepRoom) break;
+                        Messages.Keyframe kf = Net.MAPPER.treeToValue(n, Messages.Keyframe.class);
+                        lockSim = RoomSim.fromKeyframe(kf);
+                        onState(lockSim.buildState(lockSim.tick, kf.roomId, true, true));
+                    }
+
+                    case "inputs" -> {
+                        RoomSim sim = lockSim;
+                        if (!lockstepRoom || sim == null) break;
+                        Messages.Inputs in = Net.MAPPER.treeToValue(n, Messages.Inputs.class);
+                        if (in.tick != sim.tick + 1) { requestResync(); break; }
+
+                        sim.applyInputs(in.in);
+                        sim.step();
+                        if (in.sum != null && in.sum != sim.checksum()) { requestResync(); break; }
+
+                        onState(sim.buildState(sim.tick, currentRoomId, true, true));
                     }
 
                     case "profile" -> {
@@ -617,11 +772,7 @@ public final class PaperFxApp extends Application {
 
                         String from = n.path("from").asText("?");
                         String text = n.path("text").asText("");
-                        Platform.runLater(() -> {
-                            chatItems.add(from + ": " + text);
-                            if (chatItems.size() > 200) chatItems.remove(0);
-                            chatView.scrollTo(chatItems.size() - 1);
-                        });
+                        chatBatch.add(from + ": " + text);
                     }
                     case "error" -> {
                         String reason = n.path("reason").asText("error");
@@ -634,22 +785,90 @@ public final class PaperFxApp extends Application {
                 }
             } catch (Exception ignored) {}
         }
+
+        if (!chatBatch.isEmpty()) {
+            // Все сообщения чата за кадр — одним изменением списка и одной прокруткой.
+            List<String> lines = new ArrayList<>(chatBatch);
+            chatBatch.clear();
+            Platform.runLater(() -> appendChat(lines));
+        }
+
+        // Из state берём только самый свежий: промежуточные уже отброшены декодером.
+        Messages.State st = stateDecoder.takeLatest();
+        if (st != null) {
+            // state отвергнутой слишком большой комнаты может прийти до перехода в главную — не рисуем его.
+            if (lockstepRoom || !RoomProfile.fieldFits(st.cellSize, st.gridW, st.gridH)) stateDecoder.recycle(st);
+            else onState(st);
+        }
+    }
+
+    private void onState(Messages.State st) {
+        lastState = st;
+        // Буферы owners возвращаются в пул, только когда state вытеснен из буфера интерполяции.
+        long now = System.nanoTime();
+        snapshots.push(st, now, stateDecoder::recycle);
+        Messages.Player me = findMe(st);
+        if (me != null) predictor.reconcile(me, now);
+        if (st.roomId != null && !st.roomId.isBlank()) currentRoomId = st.roomId;
+
+        // onState вызывается из AnimationTimer (FX thread): обновляем UI сразу и только то, что изменилось.
+        String label = "Room: " + currentRoomId;
+        if (!label.equals(roomLabel.getText())) roomLabel.setText(label);
+        updateLeaderboard(st);
+    }
+
+    private void appendChat(List<String> lines) {
+        chatItems.addAll(lines);
+        if (chatItems.size() > CHAT_MAX_LINES) chatItems.remove(0, chatItems.size() - CHAT_MAX_LINES);
+        chatView.scrollTo(chatItems.size() - 1);
+    }
+
+    /** Свой игрок в state, если его движение предсказывается (не наблюдатель и не lockstep). */
+    private Messages.Player findMe(Messages.State st) {
+        String pid = myPlayerId;
+        if (pid == null || lockstepRoom || st.players == null) return null;
+        for (Messages.Player p : st.players) if (pid.equals(p.playerId)) return p;
+        return null;
     }
 
     private void updateLeaderboard(Messages.State st) {
         if (st == null || st.leaderboard == null) return;
-        List<LeaderRow> rows = new ArrayList<>();
-        for (Messages.LeaderEntry e : st.leaderboard) rows.add(new LeaderRow(e.username, e.bestScore));
-        leaderboard.setItems(FXCollections.observableArrayList(rows));
+        List<Messages.LeaderEntry> lb = st.leaderboard;
+
+        boolean sameOrder = lb.size() == leaderRows.size();
+        for (int i = 0; sameOrder && i < lb.size(); i++) {
+            sameOrder = Objects.equals(leaderRows.get(i).usernameProperty().get(), lb.get(i).username);
+        }
+        if (sameOrder) {
+            // Порядок тот же: меняем только счёт (свойство не уведомляет, если значение не изменилось).
+            for (int i = 0; i < lb.size(); i++) leaderRows.get(i).scoreProperty().set(lb.get(i).bestScore);
+            return;
+        }
+
+        HashMap<String, LeaderRow> byName = new HashMap<>();
+        for (LeaderRow r : leaderRows) byName.put(r.usernameProperty().get(), r);
+        List<LeaderRow> rows = new ArrayList<>(lb.size());
+        for (Messages.LeaderEntry e : lb) {
+            LeaderRow r = byName.remove(e.username);
+            if (r == null) r = new LeaderRow(e.username, e.bestScore);
+            else r.scoreProperty().set(e.bestScore);
+            rows.add(r);
+        }
+        leaderRows.setAll(rows);
     }
 
     private void render() {
-        Messages.State st = lastState;
+        // Мир рисуется с небольшой задержкой: игроки — между двумя последними снапшотами (см. SnapshotBuffer).
+        long now = System.nanoTime();
+        Messages.State st = snapshots.sample(now, interpPos);
+        String me = (lockstepRoom || isSpectator) ? null : myPlayerId;
         GraphicsContext g = canvas.getGraphicsContext2D();
-        g.setFill(Color.web("#2b2b2b"));
-        g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
-        if (st == null || st.owners == null) return;
+        if (st == null || st.owners == null) {
+            g.setFill(BG_COLOR);
+            g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            return;
+        }
 
         int cell = st.cellSize;
         int gw = st.gridW;
@@ -662,76 +881,103 @@ public final class PaperFxApp extends Application {
             canvas.setHeight(targetH);
         }
 
-        // Строим соответствие idx→цвет по игрокам в комнате (цвет территории должен совпадать с цветом игрока).
-        HashMap<Integer, Color> idxToColor = new HashMap<>();
-
-        // линии сетки (границы клеток)
-        g.setStroke(Color.color(0, 0, 0, 0.55));
-        g.setLineWidth(1);
-        for (int x = 0; x <= gw; x++) {
-            double xx = x * (double) cell + 0.5;
-            g.strokeLine(xx, 0, xx, gh * (double) cell);
-        }
-        for (int y = 0; y <= gh; y++) {
-            double yy = y * (double) cell + 0.5;
-            g.strokeLine(0, yy, gw * (double) cell, yy);
-        }
-
-        if (st.players != null) {
-            for (Messages.Player p : st.players) {
-                if (p.color == null || p.color.isBlank()) continue;
-                try {
-                    idxToColor.put(p.idx, Color.web(p.color));
-                } catch (Exception ignored) {}
+        // Фон с сеткой рисуется в картинку один раз на размер поля; территория — в картинку клетка=пиксель,
+        // где перекрашиваются только клетки, изменившиеся с прошлого state.
+        ensureLayers(gw, gh, cell);
+        if (st != territoryState) {
+            if (territory.update(gw, gh, st.owners, st.players) && territory.hasDirty()) {
+                int w = territory.dirtyX1 - territory.dirtyX0;
+                int h = territory.dirtyY1 - territory.dirtyY0;
+                territoryImage.getPixelWriter().setPixels(territory.dirtyX0, territory.dirtyY0, w, h,
+                        PixelFormat.getIntArgbInstance(), territory.argb,
+                        territory.dirtyY0 * gw + territory.dirtyX0, gw);
             }
+            territoryState = st;
         }
 
-        // территория
-        for (int y = 0; y < gh; y++) {
-            for (int x = 0; x < gw; x++) {
-                int idx = st.owners[y * gw + x];
-                if (idx == 0) continue;
-
-                Color base = idxToColor.get(idx);
-                Color c = (base != null)
-                        ? base.deriveColor(0, 1, 1, 0.65)
-                        : Color.hsb((idx * 70) % 360, 0.65, 0.75, 0.65);
-
-                g.setFill(c);
-                g.fillRect(x * cell, y * cell, cell, cell);
-            }
-        }
+        g.setImageSmoothing(false);
+        g.drawImage(gridImage, 0, 0);
+        g.drawImage(territoryImage, 0, 0, targetW, targetH);
 
         if (st.players != null) {
             for (Messages.Player p : st.players) {
                 if (p.trail != null) {
-                    Color tc = Color.web(p.color == null ? "#FFFFFF" : p.color, 0.35);
-                    g.setFill(tc);
+                    g.setFill(cachedColor(p.color, 0.35));
                     double pad = cell * 0.22; // делаем след чуть уже, чем размер клетки
-                    double w = cell - pad * 2.0;
+                    // След приходит ломаной (точки поворота): каждый отрезок рисуем одним прямоугольником.
+                    Messages.Cell prev = null;
                     for (Messages.Cell c : p.trail) {
-                        g.fillRect(c.x * cell + pad, c.y * cell + pad, w, w);
+                        Messages.Cell a = (prev == null) ? c : prev;
+                        int x0 = Math.min(a.x, c.x), x1 = Math.max(a.x, c.x);
+                        int y0 = Math.min(a.y, c.y), y1 = Math.max(a.y, c.y);
+                        g.fillRect(x0 * cell + pad, y0 * cell + pad,
+                                (x1 - x0 + 1) * cell - pad * 2.0, (y1 - y0 + 1) * cell - pad * 2.0);
+                        prev = c;
                     }
                 }
 
+                double[] pos = (me != null && me.equals(p.playerId)) ? predictor.position(now) : null;
+                if (pos == null) pos = interpPos.get(p.playerId);
+                double px = (pos != null) ? pos[0] : p.x;
+                double py = (pos != null) ? pos[1] : p.y;
+
                 // небольшая тень
-                g.setFill(Color.color(0, 0, 0, 0.30));
-                g.fillOval(p.x + 2, p.y + 2, 16, 16);
+                g.setFill(SHADOW_COLOR);
+                g.fillOval(px + 2, py + 2, 16, 16);
 
-                Color pc = Color.web(p.color == null ? "#FFFFFF" : p.color);
-                g.setFill(pc);
-                g.fillOval(p.x, p.y, 16, 16);
+                g.setFill(cachedColor(p.color, 1.0));
+                g.fillOval(px, py, 16, 16);
 
                 g.setFill(Color.WHITE);
-                g.fillText(p.username, p.x + 18, p.y + 12);
+                g.fillText(p.username, px + 18, py + 12);
             }
         }
     }
 
+    /** Отладочный оверлей (F3): время кадра и отрисовки, декодирование, поток state и трафик. */
+    private void drawDebugOverlay() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        List<String> lines = stats.lines();
+        g.setFill(Color.color(0, 0, 0, 0.6));
+        g.fillRect(4, 4, 240, 8 + lines.size() * 15);
+        g.setFill(Color.LIGHTGREEN);
+        for (int i = 0; i < lines.size(); i++) g.fillText(lines.get(i), 10, 18 + i * 15);
+    }
+
+    /** (Пере)создаёт картинки слоёв при смене размеров поля. */
+    private void ensureLayers(int gw, int gh, int cell) {
+        if (gridImage != null && layersW == gw && layersH == gh && layersCell == cell) return;
+        layersW = gw;
+        layersH = gh;
+        layersCell = cell;
+
+        gridImage = new WritableImage(gw * cell, gh * cell);
+        gridImage.getPixelWriter().setPixels(0, 0, gw * cell, gh * cell, PixelFormat.getIntArgbInstance(),
+                TerritoryLayer.gridPixels(gw, gh, cell), 0, gw * cell);
+
+        territory = new TerritoryLayer();
+        territoryImage = new WritableImage(gw, gh);
+        territoryState = null;
+    }
+
+    /** {@code Color.web} с кэшем: цвета игроков одни и те же из кадра в кадр. */
+    private Color cachedColor(String hex, double alpha) {
+        String key = (hex == null ? "#FFFFFF" : hex) + "/" + alpha;
+        Color c = colorCache.get(key);
+        if (c == null) {
+            try { c = Color.web(hex == null ? "#FFFFFF" : hex, alpha); }
+            catch (Exception e) { c = Color.color(1, 1, 1, alpha); }
+            colorCache.put(key, c);
+        }
+        return c;
+    }
+
     @Override
     public void stop() throws Exception {
         running.set(false);
+        System.out.println("[client] inputs sent=" + inputsSent + ", saved=" + inputsSaved());
         if (socket != null) socket.close();
+        if (recorder != null) recorder.close();
         super.stop();
     }
 }
\ No newline at end of file
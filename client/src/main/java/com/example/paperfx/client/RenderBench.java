@@ -0,0 +1,138 @@
+package com.example.paperfx.client;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.Net;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Headless-бенчмарк клиентского пути state → кадр без JavaFX: разбор строки ({@link StateDecoder}),
+ * буфер интерполяции ({@link SnapshotBuffer}) и слой территории ({@link TerritoryLayer}).
+ * <p>
+ * Без аргументов гоняет синтетические state для нескольких размеров поля и числа игроков.
+ * {@code --file states.jsonl} — прогон записанной сессии (см. {@code PAPERFX_RECORD} в DEV_GUIDE).
+ * <pre>
+ * ./gradlew :client:renderBench
+ * ./gradlew :client:renderBench -PbenchArgs="--grids 80x60,400x300 --players 4,32 --frames 1000"
+ * </pre>
+ */
+
+public final class RenderBench {
+    private RenderBench() {}
+
+    public static void main(String[] args) throws Exception {
+        List<int[]> grids = new ArrayList<>(List.of(new int[]{80, 60}, new int[]{160, 120}, new int[]{320, 240}));
+        int[] playerCounts = {4, 16, 64};
+        int frames = 600;
+        String file = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file" -> file = args[++i];
+                case "--frames" -> frames = Integer.parseInt(args[++i]);
+                case "--players" -> playerCounts = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--grids" -> {
+                    grids.clear();
+                    for (String g : args[++i].split(",")) {
+                        String[] wh = g.split("x");
+                        grids.add(new int[]{Integer.parseInt(wh[0]), Integer.parseInt(wh[1])});
+                    }
+                }
+                default -> throw new IllegalArgumentException("unknown arg: " + args[i]);
+            }
+        }
+
+        System.out.printf("%-10s %7s %10s %12s %12s %12s%n", "grid", "players", "bytes", "decode us", "frame us", "cells/frame");
+        if (file != null) {
+            List<String> lines = Files.readAllLines(Path.of(file), StandardCharsets.UTF_8);
+            run(file, 0, lines);
+            return;
+        }
+        for (int[] g : grids) {
+            for (int n : playerCounts) {
+                run(g[0] + "x" + g[1], n, synthetic(g[0], g[1], n, frames));
+            }
+        }
+    }
+
+    /** Прогоняет строки дважды (прогрев JIT) и печатает средние на кадр по второму проходу. */
+    private static void run(String label, int players, List<String> lines) throws IOException {
+        pass(lines);
+        Result r = pass(lines);
+        if (r.frames == 0) { System.out.println(label + ": no state lines"); return; }
+        System.out.printf("%-10s %7d %10d %12.1f %12.1f %12d%n", label, players,
+                r.bytes / r.frames, r.decodeNs / 1e3 / r.frames, r.frameNs / 1e3 / r.frames, r.changed / r.frames);
+    }
+
+    private record Result(long frames, long bytes, long decodeNs, long frameNs, long changed) {}
+
+    private static Result pass(List<String> lines) throws IOException {
+        StateDecoder dec = new StateDecoder();
+        SnapshotBuffer snaps = new SnapshotBuffer();
+        TerritoryLayer layer = new TerritoryLayer();
+        HashMap<String, double[]> pos = new HashMap<>();
+
+        long frames = 0, bytes = 0, decodeNs = 0, frameNs = 0, changed = 0;
+        long clock = 0;
+        for (String line : lines) {
+            long t0 = System.nanoTime();
+            if (!dec.offer(line)) continue;
+            long t1 = System.nanoTime();
+
+            Messages.State st = dec.takeLatest();
+            clock += 50_000_000L;
+            snaps.push(st, clock, dec::recycle);
+            Messages.State view = snaps.sample(clock, pos);
+            if (view != null && view.owners != null) {
+                layer.update(view.gridW, view.gridH, view.owners, view.players);
+                changed += layer.lastChanged;
+            }
+            long t2 = System.nanoTime();
+
+            frames++;
+            bytes += line.length();
+            decodeNs += t1 - t0;
+            frameNs += t2 - t0;
+        }
+        return new Result(frames, bytes, decodeNs, frameNs, changed);
+    }
+
+    /**
+     * Синтетическая сессия: игроки ходят по кругу и оставляют следы, каждый кадр кто-то захватывает
+     * небольшой прямоугольник территории.
+     */
+    private static List<String> synthetic(int gw, int gh, int players, int frames) throws Exception {
+        Random rnd = new Random(42);
+        int cell = 10;
+        int[] owners = new int[gw * gh];
+        List<String> out = new ArrayList<>(frames);
+
+        for (int f = 0; f < frames; f++) {
+            int who = 1 + f % players;
+            int rw = 2 + rnd.nextInt(6), rh = 2 + rnd.nextInt(6);
+            int rx = rnd.nextInt(Math.max(1, gw - rw)), ry = rnd.nextInt(Math.max(1, gh - rh));
+            for (int y = ry; y < ry + rh; y++) for (int x = rx; x < rx + rw; x++) owners[y * gw + x] = who;
+
+            List<Messages.Player> ps = new ArrayList<>(players);
+            for (int i = 1; i <= players; i++) {
+                double a = (f + i * 37) * 0.05;
+                int cx = (int) (gw / 2.0 + Math.cos(a + i) * gw / 3.0);
+                int cy = (int) (gh / 2.0 + Math.sin(a + i) * gh / 3.0);
+                List<Messages.Cell> trail = List.of(new Messages.Cell(cx, cy),
+                        new Messages.Cell(Math.min(gw - 1, cx + 5), cy),
+                        new Messages.Cell(Math.min(gw - 1, cx + 5), Math.min(gh - 1, cy + 5)));
+                ps.add(new Messages.Player("p" + i, i, "user" + i, cx * cell, cy * cell, i * 10,
+                        String.format("#%06X", (i * 0x3A5F7B) & 0xFFFFFF), trail, 0));
+            }
+            List<Messages.LeaderEntry> lb = new ArrayList<>();
+            for (Messages.Player p : ps) lb.add(new Messages.LeaderEntry(p.username, p.score));
+
+            out.add(Net.toJson(new Messages.State(f + 1, "BENCH", cell, gw, gh, owners, ps, lb)));
+        }
+        return out;
+    }
+}
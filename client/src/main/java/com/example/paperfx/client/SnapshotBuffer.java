@@ -0,0 +1,165 @@
+package com.example.paperfx.client;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.RoomSim;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Буфер последних state для интерполяции игроков между снапшотами.
+ * <p>
+ * Шкала времени — {@link Messages.State#tick}: буфер оценивает длительность тика и текущий тик сервера по моментам
+ * прихода state, а рисует момент на {@link #INTERP_DELAY_MS} в прошлом — между двумя известными снапшотами.
+ * Если новых state нет, позиции экстраполируются по последней скорости, но не дальше {@link #MAX_EXTRAPOLATE_MS}.
+ */
+
+final class SnapshotBuffer {
+    /** Задержка отрисовки относительно оценки текущего тика сервера. */
+    static final double INTERP_DELAY_MS = 100;
+    /** Насколько вперёд можно экстраполировать позиции, если state перестали приходить. */
+    static final double MAX_EXTRAPOLATE_MS = 100;
+
+    private static final int CAPACITY = 16;
+    /** Если за тик игрок сместился дальше этого (респаун), не интерполируем, а «перескакиваем». */
+    private double maxStepPx = maxStepPx(RoomSim.STEP_MS, RoomSim.CELL);
+
+    private final ArrayDeque<Messages.State> snaps = new ArrayDeque<>();
+
+    private double nsPerTick = RoomSim.STEP_MS * 1_000_000.0;
+    private double avgGapTicks = 1;
+    private long lastArrivalNs;
+
+    // Оценка текущего тика сервера: baseTick в момент baseNs, дальше идёт со скоростью nsPerTick.
+    private boolean synced = false;
+    private double baseTick;
+    private long baseNs;
+
+    /** Добавляет свежий state; вытесненные из буфера отдаются в {@code evicted}. */
+    void push(Messages.State st, long nowNs, Consumer<Messages.State> evicted) {
+        Messages.State last = snaps.peekLast();
+        if (last != null && st.tick < last.tick) {
+            // Тики пошли назад (другая комната / перезапуск) — начинаем заново.
+            clear(evicted);
+            last = null;
+        }
+        if (last != null && st.tick == last.tick) {
+            evicted.accept(snaps.pollLast());
+            last = snaps.peekLast();
+        }
+
+        if (last != null) {
+            long dTicks = st.tick - last.tick;
+            long dNs = nowNs - lastArrivalNs;
+            if (dTicks > 0 && dNs > 1_000_000) {
+                double sample = dNs / (double) dTicks;
+                nsPerTick = clamp(nsPerTick * 0.9 + sample * 0.1, 5_000_000, 1_000_000_000);
+            }
+            avgGapTicks = avgGapTicks * 0.9 + Math.max(1, dTicks) * 0.1;
+        }
+        lastArrivalNs = nowNs;
+
+        if (!synced) {
+            baseTick = st.tick;
+            baseNs = nowNs;
+            synced = true;
+        } else {
+            double err = st.tick - estTick(nowNs);
+            if (Math.abs(err) > avgGapTicks * 3 + 5) {
+                baseTick = st.tick;
+                baseNs = nowNs;
+            } else {
+                // Мягко подтягиваем оценку к фактическому приходу, чтобы джиттер сети не дёргал картинку.
+                baseTick += err * 0.05;
+            }
+        }
+
+        snaps.addLast(st);
+        while (snaps.size() > CAPACITY) evicted.accept(snaps.pollFirst());
+    }
+
+    /** Параметры комнаты из {@code room_joined}: период тика и размер клетки (вызывать вместе с {@link #clear}). */
+    void configure(long tickMs, int cell) {
+        nsPerTick = tickMs * 1_000_000.0;
+        maxStepPx = maxStepPx(tickMs, cell);
+    }
+
+    private static double maxStepPx(long tickMs, int cell) {
+        return RoomSim.PLAYER_SPEED * tickMs / 1000.0 * 2 + cell;
+    }
+
+    void clear(Consumer<Messages.State> evicted) {
+        for (Messages.State s : snaps) evicted.accept(s);
+        snaps.clear();
+        synced = false;
+    }
+
+    /**
+     * Вычисляет позиции игроков на момент отрисовки ({@code playerId → {x, y}}) и возвращает снапшот,
+     * по которому рисовать остальной мир (территорию, следы). {@code null}, если буфер пуст.
+     */
+    Messages.State sample(long nowNs, Map<String, double[]> out) {
+        out.clear();
+        if (snaps.isEmpty()) return null;
+
+        double msPerTick = nsPerTick / 1_000_000.0;
+        double delayTicks = Math.max(INTERP_DELAY_MS / msPerTick, avgGapTicks * 1.5);
+        double rt = estTick(nowNs) - delayTicks;
+
+        Messages.State a = null, b = null, prev = null;
+        for (Messages.State s : snaps) {
+            if (s.tick <= rt) { prev = a; a = s; }
+            else { b = s; break; }
+        }
+
+        if (a == null) {
+            putRaw(b, out);
+            return b;
+        }
+        if (b == null) {
+            // Новее ничего нет — экстраполяция от последнего снапшота с ограничением.
+            double ahead = Math.min(rt - a.tick, MAX_EXTRAPOLATE_MS / msPerTick);
+            if (prev == null || ahead <= 0) {
+                putRaw(a, out);
+            } else {
+                lerp(prev, a, 1 + ahead / (a.tick - prev.tick), out);
+            }
+            return a;
+        }
+        lerp(a, b, (rt - a.tick) / (double) (b.tick - a.tick), out);
+        return a;
+    }
+
+    private double estTick(long nowNs) {
+        return baseTick + (nowNs - baseNs) / nsPerTick;
+    }
+
+    private static void putRaw(Messages.State s, Map<String, double[]> out) {
+        if (s.players == null) return;
+        for (Messages.Player p : s.players) {
+            if (p.playerId != null) out.put(p.playerId, new double[]{p.x, p.y});
+        }
+    }
+
+    /** {@code t} в [0..1] — интерполяция от {@code a} к {@code b}; больше 1 — экстраполяция за {@code b}. */
+    private void lerp(Messages.State a, Messages.State b, double t, Map<String, double[]> out) {
+        if (b.players == null) return;
+        HashMap<String, Messages.Player> from = new HashMap<>();
+        if (a.players != null) for (Messages.Player p : a.players) if (p.playerId != null) from.put(p.playerId, p);
+
+        double maxStep = maxStepPx * Math.max(1, b.tick - a.tick);
+        for (Messages.Player q : b.players) {
+            if (q.playerId == null) continue;
+            Messages.Player p = from.get(q.playerId);
+            if (p == null || Math.abs(q.x - p.x) + Math.abs(q.y - p.y) > maxStep) {
+                // Новый игрок или телепорт (респаун): без интерполяции.
+                Messages.Player src = (p == null || t >= 0.5) ? q : p;
+                out.put(q.playerId, new double[]{src.x, src.y});
+                continue;
+            }
+            out.put(q.playerId, new double[]{p.x + (q.x - p.x) * t, p.y + (q.y - p.y) * t});
+        }
+    }
+
+    private static double clamp(double v, double lo, double hi) { return Math.max(lo, Math.min(hi, v)); }
+}
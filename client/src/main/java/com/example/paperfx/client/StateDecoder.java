@@ -0,0 +1,235 @@
+package com.example.paperfx.client;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Декодер входящих {@code state} на сетевом потоке клиента.
+ * <p>
+ * Строка разбирается потоково (без дерева {@code JsonNode}), {@code owners} читаются в переиспользуемые буферы,
+ * дельты следов применяются сразу (их нельзя пропускать). Готовый state кладётся в единственный слот
+ * «последнее состояние»: если UI не успел забрать предыдущий, тот отбрасывается.
+ * Строка {@code {"type":"state","tick":N,"same":true}} (в комнате ничего не изменилось) превращается в копию
+ * последнего state с новым {@code tick} — шкала тиков у интерполяции остаётся непрерывной.
+ * Территорию больших комнат сервер присылает чанками ({@link Messages.State#chunks}): декодер накладывает их
+ * на своё поле и отдаёт дальше обычный {@code owners}.
+ */
+
+final class StateDecoder {
+    private static final TypeReference<List<Messages.Player>> PLAYERS = new TypeReference<>() {};
+    private static final TypeReference<List<Messages.LeaderEntry>> LEADERS = new TypeReference<>() {};
+    private static final TypeReference<List<Messages.OwnerChunk>> CHUNKS = new TypeReference<>() {};
+
+    /** Сколько свободных буферов owners держим про запас. */
+    private static final int POOL_MAX = 4;
+
+    private final AtomicReference<Messages.State> latest = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<int[]> freeOwners = new ConcurrentLinkedQueue<>();
+    private volatile int ownersLen = 0;
+
+    // Следы игроков, собранные из дельт (playerId → точки поворота следа). Только сетевой поток.
+    private final HashMap<String, ArrayList<Messages.Cell>> trails = new HashMap<>();
+    // Последний полный state и копия его owners (буферы state уходят в пул) — для строк same. Только сетевой поток.
+    private Messages.State last;
+    private int[] lastOwners;
+    /** Последняя разобранная строка была {@code same}. */
+    private boolean decodedSame;
+    // Поле, собранное из чанков территории (комнаты с chunkSize). Только сетевой поток.
+    private int[] chunkGrid = new int[0];
+    private int chunkGridW, chunkGridH;
+
+    final AtomicLong decoded = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    /** Суммарное время разбора state (вместе с дельтами следов). */
+    final AtomicLong decodeNanos = new AtomicLong();
+
+    /**
+     * Пытается разобрать строку как state и положить её в слот последнего состояния.
+     * Возвращает {@code false}, если это сообщение другого типа.
+     */
+    boolean offer(String line) throws IOException {
+        long t0 = System.nanoTime();
+        Messages.State st = decode(line);
+        if (st == null) return false;
+        if (decodedSame) {
+            st = repeatLast(st.tick);
+            if (st == null) return true; // повторять нечего (полный state ещё не приходил)
+        } else {
+            applyTrailDeltas(st);
+            remember(st);
+        }
+        decodeNanos.addAndGet(System.nanoTime() - t0);
+        decoded.incrementAndGet();
+
+        Messages.State prev = latest.getAndSet(st);
+        if (prev != null) {
+            // UI не успел отрисовать предыдущий state — он устарел.
+            dropped.incrementAndGet();
+            recycle(prev);
+        }
+        return true;
+    }
+
+    /** Копия последнего полного state с тиком {@code tick} (игроки и лидерборд общие — они не меняются). */
+    private Messages.State repeatLast(long tick) {
+        if (last == null) return null;
+        int[] owners = null;
+        if (lastOwners != null) {
+            owners = takeOwnersBuffer();
+            if (owners.length != lastOwners.length) owners = new int[lastOwners.length];
+            System.arraycopy(lastOwners, 0, owners, 0, lastOwners.length);
+        }
+        return new Messages.State(tick, last.roomId, last.cellSize, last.gridW, last.gridH, owners, last.players, last.leaderboard);
+    }
+
+    private void remember(Messages.State st) {
+        last = st;
+        if (st.owners == null) { lastOwners = null; return; }
+        if (lastOwners == null || lastOwners.length != st.owners.length) lastOwners = new int[st.owners.length];
+        System.arraycopy(st.owners, 0, lastOwners, 0, st.owners.length);
+    }
+
+    /** Забирает последний декодированный state (или {@code null}, если нового нет). */
+    Messages.State takeLatest() {
+        return latest.getAndSet(null);
+    }
+
+    /** Возвращает буфер owners больше не нужного state в пул. */
+    void recycle(Messages.State st) {
+        if (st == null || st.owners == null) return;
+        if (st.owners.length != ownersLen) return;
+        if (freeOwners.size() < POOL_MAX) freeOwners.offer(st.owners);
+        st.owners = null;
+    }
+
+    private int[] takeOwnersBuffer() {
+        int len = ownersLen;
+        int[] b;
+        while ((b = freeOwners.poll()) != null) if (b.length == len) return b;
+        return new int[Math.max(len, 16)];
+    }
+
+    private Messages.State decode(String line) throws IOException {
+        try (JsonParser p = Net.MAPPER.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return null;
+
+            Messages.State st = new Messages.State();
+            boolean isState = false;
+            decodedSame = false;
+            int[] owners = null;
+            int n = 0;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                JsonToken t = p.nextToken();
+                switch (f) {
+                    case "type" -> {
+                        isState = "state".equals(p.getValueAsString());
+                        if (!isState) return null;
+                    }
+                    case "tick" -> st.tick = p.getValueAsLong();
+                    case "roomId" -> st.roomId = p.getValueAsString();
+                    case "cellSize" -> st.cellSize = p.getValueAsInt();
+                    case "gridW" -> st.gridW = p.getValueAsInt();
+                    case "gridH" -> st.gridH = p.getValueAsInt();
+                    case "same" -> decodedSame = p.getValueAsBoolean();
+                    case "owners" -> {
+                        if (t != JsonToken.START_ARRAY) break;
+                        owners = takeOwnersBuffer();
+                        n = 0;
+                        while (p.nextToken() != JsonToken.END_ARRAY) {
+                            if (n == owners.length) owners = Arrays.copyOf(owners, n * 2);
+                            owners[n++] = p.getIntValue();
+                        }
+                    }
+                    case "players" -> st.players = (t == JsonToken.VALUE_NULL) ? null : Net.MAPPER.readValue(p, PLAYERS);
+                    case "leaderboard" -> st.leaderboard = (t == JsonToken.VALUE_NULL) ? null : Net.MAPPER.readValue(p, LEADERS);
+                    case "chunkSize" -> st.chunkSize = p.getValueAsInt();
+                    case "chunksFull" -> st.chunksFull = p.getValueAsBoolean();
+                    case "chunks" -> st.chunks = (t == JsonToken.VALUE_NULL) ? null : Net.MAPPER.readValue(p, CHUNKS);
+                    default -> p.skipChildren();
+                }
+            }
+            if (!isState) return null;
+
+            if (owners == null && st.chunks != null && st.chunkSize != null && st.chunkSize > 0) {
+                applyChunks(st);
+                n = st.gridW * st.gridH;
+                owners = takeOwnersBuffer();
+                if (owners.length < n) owners = new int[n];
+                System.arraycopy(chunkGrid, 0, owners, 0, n);
+                st.chunks = null;
+            }
+
+            if (owners != null) {
+                if (owners.length != n) owners = Arrays.copyOf(owners, n);
+                ownersLen = n;
+            }
+            st.owners = owners;
+            return st;
+        }
+    }
+
+    /**
+     * Накладывает чанки территории на поле комнаты. Ключевой кадр ({@code chunksFull}) или смена размера поля
+     * начинают поле заново; дельта без предшествующего кадра даёт неполную картину до ближайшего кадра.
+     */
+    private void applyChunks(Messages.State st) {
+        int gw = st.gridW, gh = st.gridH, cs = st.chunkSize;
+        if (gw != chunkGridW || gh != chunkGridH || chunkGrid.length != gw * gh) {
+            chunkGrid = new int[gw * gh];
+            chunkGridW = gw;
+            chunkGridH = gh;
+        } else if (Boolean.TRUE.equals(st.chunksFull)) {
+            Arrays.fill(chunkGrid, 0);
+        }
+        int chunksX = (gw + cs - 1) / cs;
+        for (Messages.OwnerChunk c : st.chunks) {
+            int x0 = (c.i % chunksX) * cs, y0 = (c.i / chunksX) * cs;
+            if (x0 >= gw || y0 >= gh) continue;
+            int w = Math.min(cs, gw - x0), h = Math.min(cs, gh - y0);
+            for (int dy = 0; dy < h; dy++) {
+                int row = (y0 + dy) * gw + x0;
+                if (c.cells == null || c.cells.length < (dy + 1) * cs) Arrays.fill(chunkGrid, row, row + w, 0);
+                else System.arraycopy(c.cells, dy * cs, chunkGrid, row, w);
+            }
+        }
+    }
+
+    /**
+     * Применяет дельты следов из state к локальным следам и подставляет в игроков полные следы.
+     * <p>
+     * Если дельта начинается дальше, чем известно локально (пропуск), след игрока сбрасывается
+     * до ближайшего кадра, где сервер пришлёт его целиком ({@code trailFrom == 0}).
+     */
+    private void applyTrailDeltas(Messages.State st) {
+        if (st.players == null) { trails.clear(); return; }
+
+        HashSet<String> seen = new HashSet<>();
+        for (Messages.Player p : st.players) {
+            if (p.playerId == null) continue;
+            seen.add(p.playerId);
+
+            ArrayList<Messages.Cell> t = trails.computeIfAbsent(p.playerId, k -> new ArrayList<>());
+            if (p.trailFrom > t.size()) {
+                t.clear();
+            } else {
+                t.subList(p.trailFrom, t.size()).clear();
+                if (p.trail != null) t.addAll(p.trail);
+            }
+            // Копия: локальный след продолжит меняться, пока UI рисует этот state.
+            p.trail = t.isEmpty() ? null : List.copyOf(t);
+            p.trailFrom = 0;
+        }
+        trails.keySet().retainAll(seen);
+    }
+}
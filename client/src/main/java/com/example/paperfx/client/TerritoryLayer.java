@@ -0,0 +1,140 @@
+package com.example.paperfx.client;
+
+import com.example.paperfx.common.Messages;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Кэшированный слой территории: один ARGB-пиксель на клетку поля.
+ * <p>
+ * Между двумя state перекрашиваются только изменившиеся клетки; их охватывающий прямоугольник
+ * ({@code dirty*}) UI затем выгружает в {@code WritableImage}. Класс не зависит от JavaFX,
+ * поэтому его можно гонять и в headless-бенчмарке.
+ */
+
+final class TerritoryLayer {
+    /** Фон поля и линии сетки (чёрный 55% поверх фона), как рисовались раньше. */
+    static final int BG_ARGB = 0xFF2B2B2B;
+    static final int GRID_ARGB = 0xFF131313;
+
+    /** Прозрачность территории (цвет игрока с {@code opacity 0.65}). */
+    private static final int TERRITORY_ALPHA = (int) Math.round(0.65 * 255);
+
+    int gridW, gridH;
+    int[] argb = new int[0];
+    private int[] painted = new int[0];
+    private final HashMap<Integer, Integer> palette = new HashMap<>();
+
+    // Прямоугольник изменившихся клеток [x0, x1) × [y0, y1); пустой, если x0 >= x1.
+    int dirtyX0, dirtyY0, dirtyX1, dirtyY1;
+    /** Сколько клеток перекрашено последним {@link #update}. */
+    int lastChanged;
+
+    /**
+     * Приводит слой к {@code owners} нового state. Возвращает {@code true}, если что-то перекрашено.
+     */
+    boolean update(int gw, int gh, int[] owners, List<Messages.Player> players) {
+        clearDirty();
+        lastChanged = 0;
+        if (owners == null || owners.length < gw * gh) return false;
+
+        boolean repaintAll = false;
+        if (gw != gridW || gh != gridH) {
+            gridW = gw;
+            gridH = gh;
+            argb = new int[gw * gh];
+            painted = new int[gw * gh];
+            repaintAll = true;
+        }
+        if (updatePalette(players)) repaintAll = true;
+        if (repaintAll) Arrays.fill(painted, -1);
+
+        for (int y = 0; y < gh; y++) {
+            int row = y * gw;
+            for (int x = 0; x < gw; x++) {
+                int i = row + x;
+                int o = owners[i];
+                if (o == painted[i]) continue;
+                painted[i] = o;
+                argb[i] = (o == 0) ? 0 : colorOf(o);
+                lastChanged++;
+                if (x < dirtyX0) dirtyX0 = x;
+                if (x + 1 > dirtyX1) dirtyX1 = x + 1;
+                if (y < dirtyY0) dirtyY0 = y;
+                if (y + 1 > dirtyY1) dirtyY1 = y + 1;
+            }
+        }
+        return lastChanged > 0;
+    }
+
+    boolean hasDirty() { return dirtyX0 < dirtyX1 && dirtyY0 < dirtyY1; }
+
+    void clearDirty() {
+        dirtyX0 = Integer.MAX_VALUE;
+        dirtyY0 = Integer.MAX_VALUE;
+        dirtyX1 = 0;
+        dirtyY1 = 0;
+    }
+
+    /** Пересобирает палитру idx→цвет по игрокам; {@code true}, если она изменилась. */
+    private boolean updatePalette(List<Messages.Player> players) {
+        HashMap<Integer, Integer> next = new HashMap<>();
+        if (players != null) {
+            for (Messages.Player p : players) {
+                Integer c = parseHex(p.color);
+                if (c != null) next.put(p.idx, withAlpha(c, TERRITORY_ALPHA));
+            }
+        }
+        if (next.equals(palette)) return false;
+        palette.clear();
+        palette.putAll(next);
+        return true;
+    }
+
+    private int colorOf(int idx) {
+        Integer c = palette.get(idx);
+        if (c != null) return c;
+        // Территория без игрока в комнате: тот же запасной цвет, что и раньше (Color.hsb(idx*70, 0.65, 0.75, 0.65)).
+        return withAlpha(hsbToRgb((idx * 70) % 360, 0.65, 0.75), TERRITORY_ALPHA);
+    }
+
+    /** Фон поля с линиями сетки в пикселях ({@code gw*cell × gh*cell}); строится один раз на размер поля. */
+    static int[] gridPixels(int gw, int gh, int cell) {
+        int w = gw * cell, h = gh * cell;
+        int[] px = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            boolean lineRow = y % cell == 0;
+            for (int x = 0; x < w; x++) {
+                px[y * w + x] = (lineRow || x % cell == 0) ? GRID_ARGB : BG_ARGB;
+            }
+        }
+        return px;
+    }
+
+    private static Integer parseHex(String s) {
+        if (s == null || s.length() != 7 || s.charAt(0) != '#') return null;
+        try { return Integer.parseInt(s.substring(1), 16); }
+        catch (NumberFormatException e) { return null; }
+    }
+
+    private static int withAlpha(int rgb, int alpha) { return (alpha << 24) | (rgb & 0xFFFFFF); }
+
+    private static int hsbToRgb(double hue, double sat, double bri) {
+        double h = (hue % 360) / 60.0;
+        int sector = (int) Math.floor(h);
+        double f = h - sector;
+        double p = bri * (1 - sat), q = bri * (1 - sat * f), t = bri * (1 - sat * (1 - f));
+        double r, g, b;
+        switch (sector) {
+            case 0 -> { r = bri; g = t; b = p; }
+            case 1 -> { r = q; g = bri; b = p; }
+            case 2 -> { r = p; g = bri; b = t; }
+            case 3 -> { r = p; g = q; b = bri; }
+            case 4 -> { r = t; g = p; b = bri; }
+            default -> { r = bri; g = p; b = q; }
+        }
+        return ((int) Math.round(r * 255) << 16) | ((int) Math.round(g * 255) << 8) | (int) Math.round(b * 255);
+    }
+}
@@ -7,4 +7,9 @@ java {
 dependencies {
     api("com.fasterxml.jackson.core:jackson-databind:2.18.2")
     api("com.fasterxml.jackson.datatype:jackson-datatype-jsr310:2.18.2")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.11.3")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
+
+tasks.test { useJUnitPlatform() }
@@ -1,5 +1,7 @@
 package com.example.paperfx.common;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /** Общие DTO-сообщения для TCP протокола JSONL (1 JSON = 1 строка). */
@@ -13,6 +15,17 @@ public final class Messages {
         public Cell() {}
     }
 
+    /**
+     * Чанк территории {@link OwnerGrid#CHUNK}×{@link OwnerGrid#CHUNK}: номер {@code i} (построчно по чанкам поля)
+     * и клетки построчно; {@code cells == null} — в чанке нет ничьей территории.
+     */
+    public static final class OwnerChunk {
+        public int i;
+        public int[] cells;
+        public OwnerChunk(int i, int[] cells) { this.i = i; this.cells = cells; }
+        public OwnerChunk() {}
+    }
+
     public static final class LeaderEntry {
         public String username;
         public int bestScore;
@@ -41,7 +54,10 @@ public final class Messages {
         public final String type = "input";
         public int dx;
         public int dy;
+        /** Номер направления; растёт при каждой смене направления (для предсказания на клиенте). */
+        public long seq;
         public Input(int dx, int dy) { this.dx = dx; this.dy = dy; }
+        public Input(int dx, int dy, long seq) { this.dx = dx; this.dy = dy; this.seq = seq; }
         public Input() {}
     }
 
@@ -98,9 +114,21 @@ public final class Messages {
         public double y;
         public int score;
         public String color;
+        /**
+         * Дельта следа: точки поворота ломаной, начиная с позиции {@link #trailFrom} в следе игрока.
+         * Клиент обрезает свой локальный след до {@code trailFrom} и дописывает эти точки.
+         * Соседние точки всегда лежат на одной оси; след — все клетки отрезков между ними.
+         */
         public List<Cell> trail;
-
-        public Player(String playerId, int idx, String username, double x, double y, int score, String color, List<Cell> trail) {
+        /** С какой точки следа начинается {@link #trail}; {@code 0} — след целиком (или очистка, если пусто). */
+        public int trailFrom;
+        /** Номер ввода ({@link Input#seq}), с которым сервер выполнил последний шаг этого игрока. */
+        public long ackSeq;
+        /** Сколько шагов подряд сервер уже применил ввод {@link #ackSeq}. */
+        public long ackTicks;
+
+        public Player(String playerId, int idx, String username, double x, double y, int score, String color,
+                      List<Cell> trail, int trailFrom) {
             this.playerId = playerId;
             this.idx = idx;
             this.username = username;
@@ -109,6 +137,7 @@ public final class Messages {
             this.score = score;
             this.color = color;
             this.trail = trail;
+            this.trailFrom = trailFrom;
         }
         public Player() {}
     }
@@ -123,6 +152,15 @@ public final class Messages {
         public int[] owners;
         public List<Player> players;
         public List<LeaderEntry> leaderboard;
+        /** Большие комнаты: территория чанками вместо {@link #owners} — сторона чанка в клетках. */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Integer chunkSize;
+        /** Изменившиеся чанки (или все непустые, если {@link #chunksFull}). */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public List<OwnerChunk> chunks;
+        /** {@code true} — {@link #chunks} описывают поле целиком: не перечисленные чанки пусты. */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Boolean chunksFull;
 
         public State(long tick, String roomId, int cellSize, int gridW, int gridH,
                      int[] owners, List<Player> players, List<LeaderEntry> leaderboard) {
@@ -137,4 +175,55 @@ public final class Messages {
         }
         public State() {}
     }
-}
\ No newline at end of file
+
+    // ---- режим lockstep (сервер → клиент) ----
+
+    /** Полное состояние игрока симуляции (часть ключевого кадра lockstep). */
+    public static final class SimPlayerState {
+        public String playerId;
+        public int idx;
+        public String username;
+        public String color;
+        public double x;
+        public double y;
+        public int inputDx;
+        public int inputDy;
+        public int score;
+        public int cellX;
+        public int cellY;
+        public int deadCooldownTicks;
+        public List<Cell> trail;
+        public SimPlayerState() {}
+    }
+
+    /** Ключевой кадр lockstep: полное состояние симуляции комнаты после тика {@code tick}. */
+    public static final class Keyframe {
+        public final String type = "keyframe";
+        public long tick;
+        public String roomId;
+        /** Параметры комнаты ({@link RoomProfile}); {@code 0} — как у обычной комнаты. */
+        public int cellSize;
+        public int gridW;
+        public int gridH;
+        public int capacity;
+        public long stepMs;
+        public long rng;
+        public int[] owners;
+        public List<SimPlayerState> players;
+        public Keyframe() {}
+    }
+
+    /**
+     * Входы одного тика lockstep: тройки {@code idx, dx, dy} для всех игроков комнаты.
+     * Раз в несколько тиков содержит контрольную сумму состояния после тика ({@code sum}).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static final class Inputs {
+        public final String type = "inputs";
+        public long tick;
+        public int[] in;
+        public Long sum;
+        public Inputs(long tick, int[] in, Long sum) { this.tick = tick; this.in = in; this.sum = sum; }
+        public Inputs() {}
+    }
+}
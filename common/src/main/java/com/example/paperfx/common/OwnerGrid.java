@@ -0,0 +1,173 @@
+package com.example.paperfx.common;
+
+import java.util.Arrays;
+
+/**
+ * Поле «клетка → idx игрока» (территория или индекс следов) с ленивым выделением памяти по чанкам
+ * {@link #CHUNK}×{@link #CHUNK}.
+ * <p>
+ * Чанк выделяется при первой ненулевой записи и освобождается, когда в нём не остаётся ненулевых клеток,
+ * так что память растёт с занятой площадью, а не с размером поля. Для каждого значения поддерживаются число
+ * клеток ({@link #count}, счёт игрока за O(1)) и охватывающий прямоугольник: он только растёт и сбрасывается
+ * в {@link #clear(int)}, то есть может быть шире фактической территории, но никогда не уже.
+ * Изменённые чанки копятся в списке «грязных» — по нему собирается дельта территории для state.
+ */
+
+public final class OwnerGrid {
+    public static final int CHUNK_SHIFT = 5;
+    /** Сторона чанка в клетках. */
+    public static final int CHUNK = 1 << CHUNK_SHIFT;
+    public static final int CHUNK_CELLS = CHUNK * CHUNK;
+    private static final int MASK = CHUNK - 1;
+
+    public final int width;
+    public final int height;
+    public final int chunksX;
+    public final int chunksY;
+
+    /** Клетки чанка построчно ({@code (y % CHUNK) * CHUNK + x % CHUNK}); {@code null} — все нули. */
+    private final int[][] chunks;
+    /** Ненулевых клеток в чанке. */
+    private final int[] chunkFill;
+    private int allocated = 0;
+
+    private final int[] counts;
+    private final int[] minX, minY, maxX, maxY;
+
+    private final boolean[] dirty;
+    private int[] dirtyList = new int[16];
+    private int dirtyLen = 0;
+
+    /** Поле {@code width×height} для значений {@code 0..maxValue}. */
+    public OwnerGrid(int width, int height, int maxValue) {
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + MASK) >> CHUNK_SHIFT;
+        this.chunksY = (height + MASK) >> CHUNK_SHIFT;
+        this.chunks = new int[chunksX * chunksY][];
+        this.chunkFill = new int[chunks.length];
+        this.dirty = new boolean[chunks.length];
+        this.counts = new int[maxValue + 1];
+        this.minX = new int[maxValue + 1];
+        this.minY = new int[maxValue + 1];
+        this.maxX = new int[maxValue + 1];
+        this.maxY = new int[maxValue + 1];
+        for (int v = 0; v <= maxValue; v++) resetBounds(v);
+    }
+
+    public int size() { return width * height; }
+
+    public int get(int x, int y) {
+        int[] c = chunks[(y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT)];
+        return (c == null) ? 0 : c[((y & MASK) << CHUNK_SHIFT) | (x & MASK)];
+    }
+
+    /** Значение клетки по индексу {@code y * width + x}. */
+    public int get(int i) { return get(i % width, i / width); }
+
+    public void set(int i, int v) { set(i % width, i / width, v); }
+
+    public void set(int x, int y, int v) {
+        int ci = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        int[] c = chunks[ci];
+        if (c == null) {
+            if (v == 0) return;
+            c = chunks[ci] = new int[CHUNK_CELLS];
+            allocated++;
+        }
+        int k = ((y & MASK) << CHUNK_SHIFT) | (x & MASK);
+        int old = c[k];
+        if (old == v) return;
+        c[k] = v;
+        markDirty(ci);
+
+        if (old != 0) counts[old]--;
+        if (v != 0) {
+            counts[v]++;
+            if (x < minX[v]) minX[v] = x;
+            if (x > maxX[v]) maxX[v] = x;
+            if (y < minY[v]) minY[v] = y;
+            if (y > maxY[v]) maxY[v] = y;
+        }
+        if (old == 0) chunkFill[ci]++;
+        else if (v == 0 && --chunkFill[ci] == 0) {
+            chunks[ci] = null;
+            allocated--;
+        }
+    }
+
+    /** Сколько клеток имеют значение {@code v}. */
+    public int count(int v) { return counts[v]; }
+
+    /** Есть ли у значения {@code v} клетки (прямоугольник {@link #minX}..{@link #maxY} не пуст). */
+    public boolean hasBounds(int v) { return minX[v] <= maxX[v]; }
+
+    public int minX(int v) { return minX[v]; }
+    public int minY(int v) { return minY[v]; }
+    public int maxX(int v) { return maxX[v]; }
+    public int maxY(int v) { return maxY[v]; }
+
+    /** Обнуляет все клетки со значением {@code v}; просматривается только его прямоугольник. */
+    public void clear(int v) {
+        if (hasBounds(v) && counts[v] > 0) {
+            for (int y = minY[v]; y <= maxY[v]; y++) {
+                for (int x = minX[v]; x <= maxX[v]; x++) if (get(x, y) == v) set(x, y, 0);
+            }
+        }
+        resetBounds(v);
+    }
+
+    private void resetBounds(int v) {
+        minX[v] = Integer.MAX_VALUE;
+        minY[v] = Integer.MAX_VALUE;
+        maxX[v] = Integer.MIN_VALUE;
+        maxY[v] = Integer.MIN_VALUE;
+    }
+
+    /** Поле целиком построчно ({@code y * width + x}). */
+    public int[] toArray() {
+        int[] out = new int[width * height];
+        for (int ci = 0; ci < chunks.length; ci++) {
+            int[] c = chunks[ci];
+            if (c == null) continue;
+            int x0 = (ci % chunksX) << CHUNK_SHIFT, y0 = (ci / chunksX) << CHUNK_SHIFT;
+            int w = Math.min(CHUNK, width - x0), h = Math.min(CHUNK, height - y0);
+            for (int dy = 0; dy < h; dy++) System.arraycopy(c, dy << CHUNK_SHIFT, out, (y0 + dy) * width + x0, w);
+        }
+        return out;
+    }
+
+    /** Заполняет пустое поле значениями из построчного массива (лишнее отбрасывается). */
+    public void load(int[] cells) {
+        int n = Math.min(cells.length, width * height);
+        for (int i = 0; i < n; i++) if (cells[i] != 0) set(i, cells[i]);
+    }
+
+    public int chunkCount() { return chunks.length; }
+
+    /** Выделено чанков (память поля — {@code allocatedChunks() * CHUNK_CELLS} int). */
+    public int allocatedChunks() { return allocated; }
+
+    /** Клетки чанка {@code ci} (только чтение) или {@code null}, если чанк пуст. */
+    public int[] chunk(int ci) { return chunks[ci]; }
+
+    // ---- изменённые чанки ----
+
+    private void markDirty(int ci) {
+        if (dirty[ci]) return;
+        dirty[ci] = true;
+        if (dirtyLen == dirtyList.length) dirtyList = Arrays.copyOf(dirtyList, dirtyLen * 2);
+        dirtyList[dirtyLen++] = ci;
+    }
+
+    /** Сколько чанков изменилось с прошлого {@link #clearDirty()}. */
+    public int dirtyCount() { return dirtyLen; }
+
+    /** Номер {@code k}-го изменённого чанка (в порядке первого изменения). */
+    public int dirtyChunk(int k) { return dirtyList[k]; }
+
+    public void clearDirty() {
+        for (int k = 0; k < dirtyLen; k++) dirty[dirtyList[k]] = false;
+        dirtyLen = 0;
+    }
+}
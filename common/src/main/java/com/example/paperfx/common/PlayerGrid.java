@@ -0,0 +1,79 @@
+package com.example.paperfx.common;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Пространственный индекс игроков комнаты: поле разбито на корзины {@link #BUCKET}×{@link #BUCKET} клеток,
+ * игрок лежит в корзине своей клетки (списки по {@code idx}, без аллокаций при перемещении).
+ * <p>
+ * Запрос «кто рядом» ({@link #forEachNear}) просматривает только корзины вокруг точки — его стоимость
+ * зависит от плотности игроков, а не от их общего числа и размера поля.
+ */
+
+final class PlayerGrid {
+    static final int BUCKET = 16;
+
+    private final int bucketsX, bucketsY;
+    /** Первый игрок корзины ({@code idx}) или {@code 0}. */
+    private final int[] head;
+    private final int[] next, prev, bucketOf;
+    private final int[] cellX, cellY;
+
+    PlayerGrid(int gridW, int gridH, int capacity) {
+        bucketsX = (gridW + BUCKET - 1) / BUCKET;
+        bucketsY = (gridH + BUCKET - 1) / BUCKET;
+        head = new int[bucketsX * bucketsY];
+        next = new int[capacity + 1];
+        prev = new int[capacity + 1];
+        bucketOf = new int[capacity + 1];
+        cellX = new int[capacity + 1];
+        cellY = new int[capacity + 1];
+        Arrays.fill(bucketOf, -1);
+    }
+
+    /** Ставит игрока {@code idx} в клетку {@code (x, y)} (добавляет, если его ещё нет). */
+    void move(int idx, int x, int y) {
+        cellX[idx] = x;
+        cellY[idx] = y;
+        int b = (y / BUCKET) * bucketsX + x / BUCKET;
+        if (bucketOf[idx] == b) return;
+        remove(idx);
+        bucketOf[idx] = b;
+        prev[idx] = 0;
+        next[idx] = head[b];
+        if (head[b] != 0) prev[head[b]] = idx;
+        head[b] = idx;
+    }
+
+    void remove(int idx) {
+        int b = bucketOf[idx];
+        if (b < 0) return;
+        if (prev[idx] != 0) next[prev[idx]] = next[idx];
+        else head[b] = next[idx];
+        if (next[idx] != 0) prev[next[idx]] = prev[idx];
+        bucketOf[idx] = -1;
+        next[idx] = 0;
+        prev[idx] = 0;
+    }
+
+    /** Передаёт в {@code fn} игроков, чья клетка не дальше {@code r} по каждой оси от {@code (x, y)}. */
+    void forEachNear(int x, int y, int r, IntConsumer fn) {
+        int bx0 = Math.max(0, (x - r) / BUCKET), bx1 = Math.min(bucketsX - 1, (x + r) / BUCKET);
+        int by0 = Math.max(0, (y - r) / BUCKET), by1 = Math.min(bucketsY - 1, (y + r) / BUCKET);
+        for (int by = by0; by <= by1; by++) {
+            for (int bx = bx0; bx <= bx1; bx++) {
+                for (int i = head[by * bucketsX + bx]; i != 0; i = next[i]) {
+                    if (Math.abs(cellX[i] - x) <= r && Math.abs(cellY[i] - y) <= r) fn.accept(i);
+                }
+            }
+        }
+    }
+
+    /** Есть ли игрок в квадрате радиуса {@code r} вокруг {@code (x, y)}. */
+    boolean anyNear(int x, int y, int r) {
+        int[] n = {0};
+        forEachNear(x, y, r, i -> n[0]++);
+        return n[0] > 0;
+    }
+}
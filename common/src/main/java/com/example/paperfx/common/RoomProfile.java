@@ -0,0 +1,70 @@
+package com.example.paperfx.common;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Профиль комнаты: размер поля, вместимость и период шага.
+ * <p>
+ * Выбирается при {@code create_room} по имени; остальные комнаты (главная, автокомнаты) — {@link #CLASSIC}.
+ * Период шага кратен базовому тику сервера (50 мс): игровой цикл шагает комнату раз в {@code tickMs / 50} тиков.
+ */
+
+public record RoomProfile(String name, int cell, int gridW, int gridH, int capacity, long tickMs) {
+    /** Базовый тик сервера: периоды всех профилей кратны ему. */
+    public static final long BASE_TICK_MS = RoomSim.STEP_MS;
+    /**
+     * Наибольшая сторона поля в пикселях, которую показывает клиент (камеры нет, canvas — всё поле).
+     * Поля готовых профилей в неё укладываются.
+     */
+    public static final int MAX_FIELD_PX = 4096;
+
+    /** Обычная комната: 80×60, 4 игрока, 20 Гц. */
+    public static final RoomProfile CLASSIC = new RoomProfile("classic", RoomSim.CELL, RoomSim.GRID_W, RoomSim.GRID_H,
+            RoomSim.CAPACITY, RoomSim.STEP_MS);
+    /** Большая арена: 240×180, до 64 игроков, 20 Гц. */
+    public static final RoomProfile ARENA = new RoomProfile("arena", RoomSim.CELL, 240, 180, 64, RoomSim.STEP_MS);
+    /**
+     * Огромная арена: 400×400, до 100 игроков — самое большое поле, которое клиент ещё показывает целиком
+     * ({@link #MAX_FIELD_PX}). Территория хранится и передаётся чанками ({@link OwnerGrid}, {@link RoomSim#chunkedState()}),
+     * память растёт с занятой площадью. Каждый игрок по-прежнему получает всю комнату (области видимости нет).
+     */
+    public static final RoomProfile HUGE = new RoomProfile("huge", RoomSim.CELL, 400, 400, 100, RoomSim.STEP_MS);
+    /** Дешёвая комната: поле и вместимость как у обычной, но 10 Гц (вдвое меньше шагов и рассылок). */
+    public static final RoomProfile LITE = new RoomProfile("lite", RoomSim.CELL, RoomSim.GRID_W, RoomSim.GRID_H,
+            RoomSim.CAPACITY, 2 * RoomSim.STEP_MS);
+
+    public static final List<RoomProfile> ALL = List.of(CLASSIC, ARENA, HUGE, LITE);
+
+    /** Наибольшая вместимость среди профилей. */
+    public static final int MAX_CAPACITY = ALL.stream().mapToInt(RoomProfile::capacity).max().orElse(RoomSim.CAPACITY);
+
+    public RoomProfile {
+        if (cell <= 0 || gridW <= 0 || gridH <= 0 || capacity <= 0) throw new IllegalArgumentException("bad room profile: " + name);
+        if (tickMs <= 0 || tickMs % BASE_TICK_MS != 0) throw new IllegalArgumentException("tickMs must be a multiple of " + BASE_TICK_MS);
+    }
+
+    /** Профиль по имени (без учёта регистра); пустое имя — {@link #CLASSIC}, неизвестное — {@code null}. */
+    public static RoomProfile byName(String name) {
+        if (name == null || name.isBlank()) return CLASSIC;
+        String n = name.trim().toLowerCase(Locale.ROOT);
+        for (RoomProfile p : ALL) if (p.name.equals(n)) return p;
+        return null;
+    }
+
+    /** Период шага в базовых тиках сервера. */
+    public int periodTicks() { return (int) (tickMs / BASE_TICK_MS); }
+
+    public double stepSec() { return tickMs / 1000.0; }
+
+    /** Помещается ли поле {@code gridW×gridH} клеток по {@code cell} пикселей в {@link #MAX_FIELD_PX}. */
+    public static boolean fieldFits(int cell, int gridW, int gridH) {
+        return Math.max(gridW, gridH) * (long) cell <= MAX_FIELD_PX;
+    }
+
+    /**
+     * Можно ли создать комнату профиля в режиме lockstep: ключевой кадр передаёт поле целиком массивом,
+     * поэтому годятся только поля не больше обычного (без {@link RoomSim#chunkedState()}).
+     */
+    public boolean lockstepSupported() { return gridW * gridH <= RoomSim.GRID_W * RoomSim.GRID_H; }
+}
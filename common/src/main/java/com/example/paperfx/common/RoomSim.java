@@ -0,0 +1,719 @@
+package com.example.paperfx.common;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Детерминированная симуляция комнаты: поле, движение игроков, следы, захваты и убийства.
+ * <p>
+ * Шаг фиксированный ({@link #stepMs}), случайность — только через {@link SimRandom} с явным состоянием,
+ * игроки обходятся по возрастанию {@code idx}. Поэтому одни и те же входы дают одно и то же состояние
+ * на сервере и на клиенте (режим lockstep). Побочные эффекты (БД, статистика, чат) — через {@link Events}.
+ * Размер поля, вместимость и шаг задаются профилем комнаты ({@link RoomProfile}); константы ниже — значения
+ * обычной комнаты.
+ * <p>
+ * Территория и индекс следов хранятся чанками ({@link OwnerGrid}), игроки — в пространственном индексе
+ * ({@link PlayerGrid}); захват просматривает только прямоугольник территории и следа игрока. Поэтому память
+ * и стоимость шага растут с занятой площадью и активностью игроков, а не с размером поля.
+ */
+
+public final class RoomSim {
+    public static final int CELL = 10;
+    public static final int GRID_W = 80;
+    public static final int GRID_H = 60;
+
+    public static final double PLAYER_SIZE = 16;
+    public static final double PLAYER_SPEED = 240;
+
+    public static final int SPAWN_R = 3;
+    public static final int CAPACITY = 4;
+
+    /** Шаг симуляции обычной комнаты. */
+    public static final long STEP_MS = 50;
+    public static final double STEP_SEC = STEP_MS / 1000.0;
+
+    public static final int RESPAWN_COOLDOWN_TICKS = 10;
+
+    /** Новый игрок появляется не ближе этого (в клетках по каждой оси) к другим, если есть такое место. */
+    static final int SPAWN_CLEARANCE = 2 * SPAWN_R + 2;
+    static final int SPAWN_TRIES = 8;
+
+    /** События симуляции, на которые сервер вешает побочные эффекты. */
+    public interface Events {
+        default void onKill(SimPlayer killer, SimPlayer victim) {}
+        /** Вызывается до сброса территории и респауна: счёт жертвы ещё актуален. */
+        default void onDeath(SimPlayer victim, String reason) {}
+        default void onCapture(SimPlayer p, long gained) {}
+        /** Перед захватом области: след ещё не сброшен ({@code p.trailCells} — его длина). */
+        default void onCaptureStart(SimPlayer p) {}
+        /** Захват завершён, в том числе без новых клеток; парный к {@link #onCaptureStart}. */
+        default void onCaptureEnd(SimPlayer p, long gained) {}
+        /** Счёт игрока пересчитан в конце его шага. */
+        default void onScore(SimPlayer p) {}
+    }
+
+    private static final Events NO_EVENTS = new Events() {};
+
+    // Параметры комнаты (из профиля).
+    public final int cell;
+    public final int gridW;
+    public final int gridH;
+    public final int capacity;
+    /** Фиксированный шаг симуляции этой комнаты. */
+    public final long stepMs;
+    public final double stepSec;
+
+    /** Владение клетками: {@code idx} игрока или {@code 0}. */
+    public final OwnerGrid owners;
+    /** Индекс следов: {@code idx} игрока, чей след проходит через клетку, или {@code 0}. */
+    public final OwnerGrid trailOwners;
+
+    private final SimPlayer[] byIdx;
+    private final PlayerGrid playerGrid;
+    // Рабочие буферы захвата (растут до самого большого прямоугольника захвата).
+    private byte[] captureMarks = new byte[0];
+    private int[] captureQueue = new int[0];
+    public final SimRandom rnd;
+    /** Номер последнего выполненного шага. */
+    public long tick = 0;
+    /**
+     * Версия видимого состояния: растёт, когда меняется то, что попадает в state (позиции, следы, территория,
+     * состав игроков, {@code ackSeq}). Если версия не изменилась, state можно не кодировать заново.
+     */
+    public long version = 0;
+
+    // Входы последнего шага: тройки idx, dx, dy.
+    private final int[] lastInputs;
+    private int lastInputsLen = 0;
+
+    private Events events = NO_EVENTS;
+
+    /** Сколько последних рассылок помнит журнал дельт ({@link #buildStateSince}). */
+    public static final int SENT_LOG = 16;
+    // Журнал рассылок (кольцо по sentNext): тик, изменившиеся с прошлой рассылки чанки и начало дельты следа по idx.
+    private final long[] sentTick = new long[SENT_LOG];
+    private final int[][] sentChunks = new int[SENT_LOG][];
+    private final int[] sentChunksLen = new int[SENT_LOG];
+    private final int[][] sentTrailFrom = new int[SENT_LOG][];
+    private int sentNext = 0;
+    // Рабочие буферы сборки дельты.
+    private final int[] deltaFrom;
+    private int[] deltaChunks = new int[16];
+    private boolean[] deltaSeen = new boolean[0];
+
+    public RoomSim(long seed) {
+        this(seed, RoomProfile.CLASSIC);
+    }
+
+    public RoomSim(long seed, RoomProfile profile) {
+        this(seed, profile.cell(), profile.gridW(), profile.gridH(), profile.capacity(), profile.tickMs());
+    }
+
+    /** Индексы поля и игроков создаются под размеры этой комнаты (память чанков поля — по мере заполнения). */
+    public RoomSim(long seed, int cell, int gridW, int gridH, int capacity, long stepMs) {
+        this.rnd = new SimRandom(seed);
+        this.cell = cell;
+        this.gridW = gridW;
+        this.gridH = gridH;
+        this.capacity = capacity;
+        this.stepMs = stepMs;
+        this.stepSec = stepMs / 1000.0;
+        this.owners = new OwnerGrid(gridW, gridH, capacity);
+        this.trailOwners = new OwnerGrid(gridW, gridH, capacity);
+        this.byIdx = new SimPlayer[capacity + 1];
+        this.playerGrid = new PlayerGrid(gridW, gridH, capacity);
+        this.lastInputs = new int[capacity * 3];
+        this.deltaFrom = new int[capacity + 1];
+    }
+
+    public void setEvents(Events events) { this.events = (events == null) ? NO_EVENTS : events; }
+
+    public int toIndex(int x, int y) { return y * gridW + x; }
+
+    public SimPlayer player(int idx) {
+        return (idx <= 0 || idx > capacity) ? null : byIdx[idx];
+    }
+
+    /** Игроки в порядке возрастания {@code idx}. */
+    public List<SimPlayer> players() {
+        ArrayList<SimPlayer> out = new ArrayList<>(capacity);
+        for (int i = 1; i <= capacity; i++) if (byIdx[i] != null) out.add(byIdx[i]);
+        return out;
+    }
+
+    public int countTerritoryCells(int idx) {
+        return (idx <= 0 || idx > capacity) ? 0 : owners.count(idx);
+    }
+
+    /**
+     * Территория в state передаётся чанками ({@link Messages.State#chunks}), а не массивом {@code owners}:
+     * для полей больше обычного полный массив на каждый тик слишком велик.
+     */
+    public boolean chunkedState() {
+        return gridW * gridH > GRID_W * GRID_H;
+    }
+
+    /**
+     * Выделяет компактный индекс игрока в диапазоне [1..capacity], который сейчас свободен.
+     * <p>
+     * Возвращает -1, если свободных индексов нет.
+     */
+    public int allocIdx() {
+        for (int i = 1; i <= capacity; i++) if (byIdx[i] == null) return i;
+        return -1;
+    }
+
+    /** Добавляет игрока в симуляцию и ставит его на случайную клетку со стартовой территорией. */
+    public void addPlayer(SimPlayer p) {
+        byIdx[p.idx] = p;
+        spawn(p);
+        version++;
+    }
+
+    /** Убирает игрока из симуляции вместе со следом (и территорией, если {@code keepTerritory == false}). */
+    public SimPlayer removePlayer(int idx, boolean keepTerritory) {
+        SimPlayer p = player(idx);
+        if (p == null) return null;
+        byIdx[idx] = null;
+        playerGrid.remove(idx);
+        version++;
+        clearTrail(p);
+        if (!keepTerritory) owners.clear(idx);
+        return p;
+    }
+
+    /** Случайная клетка, по возможности подальше от других игроков (несколько попыток через {@link #playerGrid}). */
+    private void spawn(SimPlayer p) {
+        playerGrid.remove(p.idx);
+        int sx = 0, sy = 0;
+        for (int t = 0; t < SPAWN_TRIES; t++) {
+            sx = rnd.nextInt(gridW);
+            sy = rnd.nextInt(gridH);
+            if (!playerGrid.anyNear(sx, sy, SPAWN_CLEARANCE)) break;
+        }
+        placeAt(p, sx, sy);
+    }
+
+    /** Ставит игрока в клетку {@code (cx, cy)} со стартовой территорией (прежняя территория игрока не трогается). */
+    public void placeAt(SimPlayer p, int cx, int cy) {
+        p.x = cx * cell + (cell - PLAYER_SIZE) / 2.0;
+        p.y = cy * cell + (cell - PLAYER_SIZE) / 2.0;
+        p.cellX = cx;
+        p.cellY = cy;
+        playerGrid.move(p.idx, cx, cy);
+
+        giveInitialTerritory(p.idx, cx, cy);
+        version++;
+    }
+
+    void giveInitialTerritory(int idx, int cx, int cy) {
+        for (int y = cy - SPAWN_R; y <= cy + SPAWN_R; y++) {
+            for (int x = cx - SPAWN_R; x <= cx + SPAWN_R; x++) {
+                if (x < 0 || y < 0 || x >= gridW || y >= gridH) continue;
+                owners.set(x, y, idx);
+            }
+        }
+    }
+
+    public void killAndRespawn(SimPlayer victim, String reason) {
+        events.onDeath(victim, reason);
+        version++;
+
+        owners.clear(victim.idx);
+        clearTrail(victim);
+
+        spawn(victim);
+        victim.deadCooldownTicks = RESPAWN_COOLDOWN_TICKS;
+    }
+
+    /** Применяет входы тика (тройки {@code idx, dx, dy}) — так клиент lockstep повторяет шаг сервера. */
+    public void applyInputs(int[] in) {
+        if (in == null) return;
+        for (int k = 0; k + 2 < in.length; k += 3) {
+            SimPlayer p = player(in[k]);
+            if (p == null) continue;
+            p.inputDx = in[k + 1];
+            p.inputDy = in[k + 2];
+        }
+    }
+
+    /** Входы, с которыми был выполнен последний шаг (тройки {@code idx, dx, dy}). */
+    public int[] lastInputs() { return Arrays.copyOf(lastInputs, lastInputsLen); }
+
+    /**
+     * Один шаг симуляции длительностью {@link #stepMs} (по умолчанию {@link #STEP_MS}).
+     * <p>
+     * Ввод игроков фиксируется в начале шага, поэтому ввод, пришедший во время шага, попадёт в следующий.
+     */
+    public void step() {
+        tick++;
+
+        int n = 0;
+        for (int i = 1; i <= capacity; i++) {
+            SimPlayer p = byIdx[i];
+            if (p == null) continue;
+            lastInputs[n++] = i;
+            lastInputs[n++] = p.inputDx;
+            lastInputs[n++] = p.inputDy;
+            if (p.inputSeq != p.ackSeq) {
+                p.ackSeq = p.inputSeq;
+                p.ackTicks = 0;
+                version++;
+            }
+            p.ackTicks++;
+        }
+        lastInputsLen = n;
+
+        for (int k = 0; k < n; k += 3) {
+            SimPlayer p = byIdx[lastInputs[k]];
+            if (p != null) stepPlayer(p, lastInputs[k + 1], lastInputs[k + 2]);
+        }
+    }
+
+    private void stepPlayer(SimPlayer p, int dx, int dy) {
+        if (p.deadCooldownTicks > 0) { p.deadCooldownTicks--; return; }
+
+        int oldCx = p.cellX;
+        int oldCy = p.cellY;
+        double oldX = p.x, oldY = p.y;
+
+        p.x = clamp(p.x + (dx * PLAYER_SPEED) * stepSec, 0, gridW * (double) cell - PLAYER_SIZE);
+        p.y = clamp(p.y + (dy * PLAYER_SPEED) * stepSec, 0, gridH * (double) cell - PLAYER_SIZE);
+        // Стоит на месте (нет ввода или упёрся в край) — его клетка и след тоже не меняются.
+        if (p.x != oldX || p.y != oldY) version++;
+
+        int newCx = clampInt((int) Math.floor((p.x + PLAYER_SIZE / 2.0) / cell), 0, gridW - 1);
+        int newCy = clampInt((int) Math.floor((p.y + PLAYER_SIZE / 2.0) / cell), 0, gridH - 1);
+
+        if (newCx != oldCx || newCy != oldCy) {
+            for (int[] c : bresenham(oldCx, oldCy, newCx, newCy)) {
+                if (c[0] == oldCx && c[1] == oldCy) continue;
+                p.cellX = c[0];
+                p.cellY = c[1];
+                onEnterCell(p, c[0], c[1]);
+            }
+            playerGrid.move(p.idx, p.cellX, p.cellY);
+        }
+
+        p.score = countTerritoryCells(p.idx);
+        events.onScore(p);
+    }
+
+    private void onEnterCell(SimPlayer mover, int x, int y) {
+        // Если игрок наступает на чужой след — умирает ТОТ, чей след.
+        int trailIdx = trailOwners.get(x, y);
+        if (trailIdx != 0 && trailIdx != mover.idx) {
+            SimPlayer other = player(trailIdx);
+            if (other != null && other.deadCooldownTicks == 0) {
+                events.onKill(mover, other);
+                killAndRespawn(other, "trail intersected by " + mover.username);
+            }
+        }
+
+        int idx = mover.idx;
+        boolean inOwnTerritory = owners.get(x, y) == idx;
+
+        if (!inOwnTerritory) {
+            // Вне своей территории: продолжаем след. Захват возможен ТОЛЬКО при возврате на свою территорию.
+            addTrail(mover, x, y);
+        } else {
+            // Возврат на свою территорию замыкает контур и захватывает область внутри.
+            if (!mover.trailPts.isEmpty()) captureLoopOverwrite(mover);
+        }
+    }
+
+    private void addTrail(SimPlayer p, int x, int y) {
+        if (trailOwners.get(x, y) != p.idx) {
+            trailOwners.set(x, y, p.idx);
+            p.trailCells++;
+        }
+        // Самопересечение тоже продлевает ломаную: клетки следа при этом не дублируются в индексе.
+        p.appendTrailPoint(x, y);
+    }
+
+    /** Очищает след игрока вместе с его клетками в индексе следов комнаты. */
+    public void clearTrail(SimPlayer p) {
+        forEachTrailCell(p, i -> { if (trailOwners.get(i) == p.idx) trailOwners.set(i, 0); });
+        p.clearTrail();
+    }
+
+    /**
+     * Разворачивает ломаную следа в клетки и передаёт индекс каждой клетки в {@code fn}.
+     * Клетки на стыках отрезков и в местах самопересечений могут встретиться повторно.
+     */
+    public void forEachTrailCell(SimPlayer p, IntConsumer fn) {
+        List<Messages.Cell> pts = p.trailPts;
+        for (int k = 0; k < pts.size(); k++) {
+            Messages.Cell b = pts.get(k);
+            if (k == 0) { fn.accept(toIndex(b.x, b.y)); continue; }
+            Messages.Cell a = pts.get(k - 1);
+            if (a.x != b.x && a.y != b.y) {
+                // Не осевой отрезок (на практике не возникает) — растеризуем как линию.
+                for (int[] c : bresenham(a.x, a.y, b.x, b.y)) fn.accept(toIndex(c[0], c[1]));
+                continue;
+            }
+            int sx = Integer.signum(b.x - a.x), sy = Integer.signum(b.y - a.y);
+            int x = a.x, y = a.y;
+            while (x != b.x || y != b.y) {
+                x += sx;
+                y += sy;
+                fn.accept(toIndex(x, y));
+            }
+        }
+    }
+
+    /**
+     * Захват замкнутой области через flood-fill от границ.
+     * <p>
+     * «Стены» — территория игрока + его след.
+     * Всё, что недостижимо снаружи, считается «внутри» и становится территорией игрока.
+     * Владельцы перезаписываются (клетки «переходят» захватившему).
+     * Сам след также превращается в территорию (включая линии толщиной 1 клетку).
+     * <p>
+     * Замкнутая область всегда лежит внутри прямоугольника стен, поэтому заливка идёт не по всему полю, а по этому
+     * прямоугольнику с рамкой в одну клетку: клетки рамки вне стен заведомо снаружи и служат затравкой
+     * (на краю поля рамкой служит сам край, как и при заливке всего поля).
+     */
+    public void captureLoopOverwrite(SimPlayer p) {
+        int idx = p.idx;
+        if (p.trailPts.isEmpty()) return;
+        events.onCaptureStart(p);
+
+        // Прямоугольник стен: территория (консервативный прямоугольник из OwnerGrid) + точки поворота следа.
+        int bx0 = Integer.MAX_VALUE, by0 = Integer.MAX_VALUE, bx1 = Integer.MIN_VALUE, by1 = Integer.MIN_VALUE;
+        if (owners.hasBounds(idx)) {
+            bx0 = owners.minX(idx);
+            by0 = owners.minY(idx);
+            bx1 = owners.maxX(idx);
+            by1 = owners.maxY(idx);
+        }
+        for (Messages.Cell c : p.trailPts) {
+            bx0 = Math.min(bx0, c.x);
+            by0 = Math.min(by0, c.y);
+            bx1 = Math.max(bx1, c.x);
+            by1 = Math.max(by1, c.y);
+        }
+        int x0 = Math.max(0, bx0 - 1), y0 = Math.max(0, by0 - 1);
+        int x1 = Math.min(gridW - 1, bx1 + 1), y1 = Math.min(gridH - 1, by1 + 1);
+        int bw = x1 - x0 + 1, bh = y1 - y0 + 1, n = bw * bh;
+
+        if (captureMarks.length < n) {
+            captureMarks = new byte[n];
+            captureQueue = new int[n];
+        }
+        byte[] mark = captureMarks;
+        Arrays.fill(mark, 0, n, OPEN);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) if (owners.get(x, y) == idx) mark[(y - y0) * bw + (x - x0)] = BLOCKED;
+        }
+        forEachTrailCell(p, i -> mark[(i / gridW - y0) * bw + (i % gridW - x0)] = BLOCKED);
+
+        int[] q = captureQueue;
+        int qn = 0;
+        for (int x = 0; x < bw; x++) {
+            qn = pushIfOpen(q, qn, mark, x);
+            qn = pushIfOpen(q, qn, mark, (bh - 1) * bw + x);
+        }
+        for (int y = 0; y < bh; y++) {
+            qn = pushIfOpen(q, qn, mark, y * bw);
+            qn = pushIfOpen(q, qn, mark, y * bw + bw - 1);
+        }
+
+        for (int head = 0; head < qn; head++) {
+            int cur = q[head];
+            int cx = cur % bw;
+            int cy = cur / bw;
+            if (cx > 0) qn = pushIfOpen(q, qn, mark, cur - 1);
+            if (cx + 1 < bw) qn = pushIfOpen(q, qn, mark, cur + 1);
+            if (cy > 0) qn = pushIfOpen(q, qn, mark, cur - bw);
+            if (cy + 1 < bh) qn = pushIfOpen(q, qn, mark, cur + bw);
+        }
+
+        long gained = 0;
+
+        for (int y = 0; y < bh; y++) {
+            for (int x = 0; x < bw; x++) {
+                if (mark[y * bw + x] != OPEN) continue;
+                if (owners.get(x0 + x, y0 + y) != idx) gained++;
+                owners.set(x0 + x, y0 + y, idx);
+            }
+        }
+
+        long[] trailGained = { 0 };
+        forEachTrailCell(p, ti -> {
+            if (owners.get(ti) != idx) trailGained[0]++;
+            owners.set(ti, idx);
+        });
+        gained += trailGained[0];
+
+        if (gained > 0) events.onCapture(p, gained);
+
+        clearTrail(p);
+        events.onCaptureEnd(p, gained);
+    }
+
+    // Отметки клеток при захвате.
+    private static final byte OPEN = 0, BLOCKED = 1, OUTSIDE = 2;
+
+    private static int pushIfOpen(int[] q, int qn, byte[] mark, int i) {
+        if (mark[i] != OPEN) return qn;
+        mark[i] = OUTSIDE;
+        q[qn] = i;
+        return qn + 1;
+    }
+
+    // ---- состояние для сети ----
+
+    /**
+     * Собирает state комнаты.
+     * <p>
+     * При {@code fullTrails == false} у каждого игрока передаётся только дельта следа
+     * с момента прошлой рассылки ({@link Messages.Player#trailFrom}); след передаётся точками поворота.
+     * Территория больших комнат ({@link #chunkedState()}) передаётся так же: дельтой — изменившиеся чанки,
+     * ключевым кадром — все непустые.
+     */
+    public Messages.State buildState(long tick, String roomId, boolean fullTrails) {
+        return buildState(tick, roomId, fullTrails, !chunkedState());
+    }
+
+    /** Как {@link #buildState(long, String, boolean)}; {@code denseOwners} — территория массивом {@code owners}. */
+    public Messages.State buildState(long tick, String roomId, boolean fullTrails, boolean denseOwners) {
+        if (fullTrails) return buildState(tick, roomId, denseOwners, null, 0);
+        for (int i = 1; i <= capacity; i++) deltaFrom[i] = (byIdx[i] == null) ? 0 : byIdx[i].trailSentLen;
+        int n = owners.dirtyCount();
+        if (deltaChunks.length < n) deltaChunks = new int[Math.max(n, deltaChunks.length * 2)];
+        for (int k = 0; k < n; k++) deltaChunks[k] = owners.dirtyChunk(k);
+        return buildState(tick, roomId, denseOwners, deltaFrom, n);
+    }
+
+    /**
+     * State-дельта для клиента, который последним получил state рассылки тика {@code sinceTick} и пропустил
+     * следующие: изменившиеся с тех пор чанки территории и хвосты следов, собранные по журналу последних
+     * {@link #SENT_LOG} рассылок ({@link #markTrailsSent(long)}). Вызывается после отметки текущей рассылки.
+     * {@code null}, если такой рассылки в журнале нет — тогда клиенту нужен полный кадр.
+     */
+    public Messages.State buildStateSince(long tick, String roomId, long sinceTick) {
+        int oldest = Math.max(0, sentNext - SENT_LOG);
+        int base = -1;
+        for (int j = sentNext - 1; j >= oldest; j--) {
+            if (sentTick[j % SENT_LOG] == sinceTick) { base = j; break; }
+        }
+        if (base < 0) return null;
+
+        Arrays.fill(deltaFrom, Integer.MAX_VALUE);
+        if (deltaSeen.length != owners.chunkCount()) deltaSeen = new boolean[owners.chunkCount()];
+        int n = 0;
+        for (int j = base + 1; j < sentNext; j++) {
+            int slot = j % SENT_LOG;
+            int[] from = sentTrailFrom[slot];
+            for (int i = 1; i <= capacity; i++) deltaFrom[i] = Math.min(deltaFrom[i], from[i]);
+            int[] chunks = sentChunks[slot];
+            for (int k = 0; k < sentChunksLen[slot]; k++) {
+                int ci = chunks[k];
+                if (deltaSeen[ci]) continue;
+                deltaSeen[ci] = true;
+                if (n == deltaChunks.length) deltaChunks = Arrays.copyOf(deltaChunks, n * 2);
+                deltaChunks[n++] = ci;
+            }
+        }
+        for (int k = 0; k < n; k++) deltaSeen[deltaChunks[k]] = false;
+        // После базы рассылок не было (клиент уже в курсе) — дельта пустая: следы с их текущей длины.
+        if (base == sentNext - 1) {
+            for (int i = 1; i <= capacity; i++) deltaFrom[i] = (byIdx[i] == null) ? 0 : byIdx[i].trailPts.size();
+        }
+        return buildState(tick, roomId, !chunkedState(), deltaFrom, n);
+    }
+
+    /**
+     * Сборка state: {@code trailFrom == null} — следы и территория целиком (ключевой кадр); иначе у игрока {@code idx}
+     * след с позиции {@code trailFrom[idx]}, а чанки территории — первые {@code chunkCount} из {@link #deltaChunks}.
+     */
+    private Messages.State buildState(long tick, String roomId, boolean denseOwners, int[] trailFrom, int chunkCount) {
+        boolean full = trailFrom == null;
+        int[] ownersSnap = denseOwners ? owners.toArray() : null;
+
+        List<Messages.Player> ps = new ArrayList<>();
+        for (SimPlayer p : players()) {
+            int size = p.trailPts.size();
+            int from = (full || trailFrom[p.idx] > size) ? 0 : trailFrom[p.idx];
+            Messages.Player pl = new Messages.Player(p.playerId, p.idx, p.username, p.x, p.y, p.score, p.color,
+                    copyPoints(p.trailPts, from, size), from);
+            pl.ackSeq = p.ackSeq;
+            pl.ackTicks = p.ackTicks;
+            ps.add(pl);
+        }
+        ps.sort(Comparator.comparingInt((Messages.Player pl) -> pl.score).reversed());
+
+        // Лидерборд по комнате
+        List<Messages.LeaderEntry> lb = new ArrayList<>();
+        for (Messages.Player pl : ps) lb.add(new Messages.LeaderEntry(pl.username, pl.score));
+
+        Messages.State st = new Messages.State(tick, roomId, cell, gridW, gridH, ownersSnap, ps, lb);
+        if (!denseOwners) {
+            st.chunkSize = OwnerGrid.CHUNK;
+            st.chunksFull = full;
+            st.chunks = new ArrayList<>();
+            if (full) {
+                for (int ci = 0; ci < owners.chunkCount(); ci++) {
+                    int[] c = owners.chunk(ci);
+                    if (c != null) st.chunks.add(new Messages.OwnerChunk(ci, c.clone()));
+                }
+            } else {
+                for (int k = 0; k < chunkCount; k++) {
+                    int ci = deltaChunks[k];
+                    int[] c = owners.chunk(ci);
+                    st.chunks.add(new Messages.OwnerChunk(ci, c == null ? null : c.clone()));
+                }
+            }
+        }
+        return st;
+    }
+
+    /**
+     * Отмечает текущие следы и чанки территории как отправленные рассылкой тика {@code tick}: следующая дельта
+     * начнётся с них. Сама дельта этой рассылки запоминается в журнале для {@link #buildStateSince}.
+     */
+    public void markTrailsSent(long tick) {
+        int slot = sentNext++ % SENT_LOG;
+        sentTick[slot] = tick;
+        int[] from = sentTrailFrom[slot];
+        if (from == null) from = sentTrailFrom[slot] = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            SimPlayer p = byIdx[i];
+            if (p == null) { from[i] = 0; continue; }
+            int size = p.trailPts.size();
+            from[i] = (p.trailSentLen > size) ? 0 : p.trailSentLen;
+            p.trailSentLen = size;
+        }
+        int n = owners.dirtyCount();
+        int[] chunks = sentChunks[slot];
+        if (chunks == null || chunks.length < n) chunks = sentChunks[slot] = new int[Math.max(16, n)];
+        for (int k = 0; k < n; k++) chunks[k] = owners.dirtyChunk(k);
+        sentChunksLen[slot] = n;
+        owners.clearDirty();
+    }
+
+    public Messages.Keyframe toKeyframe(String roomId) {
+        Messages.Keyframe kf = new Messages.Keyframe();
+        kf.tick = tick;
+        kf.roomId = roomId;
+        kf.cellSize = cell;
+        kf.gridW = gridW;
+        kf.gridH = gridH;
+        kf.capacity = capacity;
+        kf.stepMs = stepMs;
+        kf.rng = rnd.state;
+        kf.owners = owners.toArray();
+        kf.players = new ArrayList<>();
+        for (SimPlayer p : players()) {
+            Messages.SimPlayerState s = new Messages.SimPlayerState();
+            s.playerId = p.playerId;
+            s.idx = p.idx;
+            s.username = p.username;
+            s.color = p.color;
+            s.x = p.x;
+            s.y = p.y;
+            s.inputDx = p.inputDx;
+            s.inputDy = p.inputDy;
+            s.score = p.score;
+            s.cellX = p.cellX;
+            s.cellY = p.cellY;
+            s.deadCooldownTicks = p.deadCooldownTicks;
+            s.trail = copyPoints(p.trailPts, 0, p.trailPts.size());
+            kf.players.add(s);
+        }
+        return kf;
+    }
+
+    /** Восстанавливает симуляцию из ключевого кадра (индекс следов пересобирается по ломаным). */
+    public static RoomSim fromKeyframe(Messages.Keyframe kf) {
+        RoomSim sim = new RoomSim(0,
+                kf.cellSize > 0 ? kf.cellSize : CELL, kf.gridW > 0 ? kf.gridW : GRID_W, kf.gridH > 0 ? kf.gridH : GRID_H,
+                kf.capacity > 0 ? kf.capacity : CAPACITY, kf.stepMs > 0 ? kf.stepMs : STEP_MS);
+        sim.rnd.state = kf.rng;
+        sim.tick = kf.tick;
+        if (kf.owners != null) sim.owners.load(kf.owners);
+        if (kf.players != null) {
+            for (Messages.SimPlayerState s : kf.players) {
+                if (s.idx <= 0 || s.idx > sim.capacity) continue;
+                SimPlayer p = new SimPlayer(s.playerId, s.username, s.idx, s.color);
+                p.x = s.x;
+                p.y = s.y;
+                p.inputDx = s.inputDx;
+                p.inputDy = s.inputDy;
+                p.score = s.score;
+                p.cellX = s.cellX;
+                p.cellY = s.cellY;
+                p.deadCooldownTicks = s.deadCooldownTicks;
+                sim.byIdx[p.idx] = p;
+                sim.playerGrid.move(p.idx, p.cellX, p.cellY);
+                if (s.trail != null) {
+                    for (Messages.Cell c : s.trail) p.trailPts.add(new Messages.Cell(c.x, c.y));
+                    sim.forEachTrailCell(p, i -> {
+                        if (sim.trailOwners.get(i) != p.idx) { sim.trailOwners.set(i, p.idx); p.trailCells++; }
+                    });
+                }
+            }
+        }
+        return sim;
+    }
+
+    /** Контрольная сумма состояния (для сверки клиента lockstep с сервером). */
+    public long checksum() {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, tick);
+        h = mix(h, rnd.state);
+        // Непустые клетки по чанкам: не зависит от того, какие пустые чанки выделены на этой стороне.
+        for (int ci = 0; ci < owners.chunkCount(); ci++) {
+            int[] c = owners.chunk(ci);
+            if (c == null) continue;
+            for (int k = 0; k < c.length; k++) if (c[k] != 0) h = mix(mix(h, (long) ci * OwnerGrid.CHUNK_CELLS + k), c[k]);
+        }
+        for (int i = 1; i <= capacity; i++) {
+            SimPlayer p = byIdx[i];
+            if (p == null) continue;
+            h = mix(h, p.idx);
+            h = mix(h, Double.doubleToLongBits(p.x));
+            h = mix(h, Double.doubleToLongBits(p.y));
+            h = mix(h, p.cellX);
+            h = mix(h, p.cellY);
+            h = mix(h, p.score);
+            h = mix(h, p.deadCooldownTicks);
+            for (Messages.Cell c : p.trailPts) h = mix(mix(h, c.x), c.y);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) { return (h ^ v) * 0x100000001b3L; }
+
+    private static List<Messages.Cell> copyPoints(List<Messages.Cell> pts, int from, int to) {
+        if (from >= to) return null;
+        ArrayList<Messages.Cell> out = new ArrayList<>(to - from);
+        for (Messages.Cell c : pts.subList(from, to)) out.add(new Messages.Cell(c.x, c.y));
+        return out;
+    }
+
+    // ---- утилиты ----
+
+    public static double clamp(double v, double lo, double hi) { return Math.max(lo, Math.min(hi, v)); }
+    public static int clampInt(int v, int lo, int hi) { return Math.max(lo, Math.min(hi, v)); }
+
+    public static List<int[]> bresenham(int x0, int y0, int x1, int y1) {
+        ArrayList<int[]> out = new ArrayList<>();
+        int dx = Math.abs(x1 - x0);
+        int sx = x0 < x1 ? 1 : -1;
+        int dy = -Math.abs(y1 - y0);
+        int sy = y0 < y1 ? 1 : -1;
+        int err = dx + dy;
+
+        int x = x0, y = y0;
+        while (true) {
+            out.add(new int[]{x, y});
+            if (x == x1 && y == y1) break;
+            int e2 = 2 * err;
+            if (e2 >= dy) { err += dy; x += sx; }
+            if (e2 <= dx) { err += dx; y += sy; }
+        }
+        return out;
+    }
+}
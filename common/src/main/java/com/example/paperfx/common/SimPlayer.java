@@ -0,0 +1,69 @@
+package com.example.paperfx.common;
+
+import java.util.ArrayList;
+
+/**
+ * Игрок внутри симуляции комнаты ({@link RoomSim}): позиция, ввод, след и счёт.
+ * <p>
+ * Сервер расширяет класс данными соединения и пользователя; клиент в режиме lockstep использует как есть.
+ */
+
+public class SimPlayer {
+    public final String playerId;
+    public final String username;
+    public final int idx;
+    public final String color;
+
+    public double x, y;
+    public int inputDx = 0, inputDy = 0;
+    /** Номер последнего полученного ввода ({@link Messages.Input#seq}). */
+    public long inputSeq = 0;
+    /** Номер ввода, с которым выполнен последний шаг, и сколько шагов подряд он уже применён. */
+    public long ackSeq = 0;
+    public long ackTicks = 0;
+
+    public int score = 0;
+    public int cellX, cellY;
+    public int deadCooldownTicks = 0;
+
+    /**
+     * След в виде ломаной: точки поворота (движение идёт по осям, поэтому след — это длинные прямые отрезки).
+     * Принадлежность клетки следу проверяется по индексу следов комнаты ({@link RoomSim#trailOwners}).
+     */
+    public final ArrayList<Messages.Cell> trailPts = new ArrayList<>();
+    /** Число различных клеток в следе. */
+    public int trailCells = 0;
+    /** Сколько первых точек следа не изменилось с прошлой рассылки (база для дельты следа в state). */
+    public int trailSentLen = 0;
+
+    public SimPlayer(String playerId, String username, int idx, String color) {
+        this.playerId = playerId;
+        this.username = username;
+        this.idx = idx;
+        this.color = color;
+    }
+
+    /**
+     * Дописывает клетку в конец следа: продлевает последний отрезок, если клетка лежит на его продолжении,
+     * иначе добавляет новую точку поворота.
+     */
+    void appendTrailPoint(int x, int y) {
+        int n = trailPts.size();
+        if (n >= 2) {
+            Messages.Cell a = trailPts.get(n - 2);
+            Messages.Cell b = trailPts.get(n - 1);
+            int dx = x - b.x, dy = y - b.y;
+            boolean step = Math.abs(dx) + Math.abs(dy) == 1;
+            if (step && dx == Integer.signum(b.x - a.x) && dy == Integer.signum(b.y - a.y)) {
+                b.x = x;
+                b.y = y;
+                if (trailSentLen > n - 1) trailSentLen = n - 1;
+                return;
+            }
+        }
+        trailPts.add(new Messages.Cell(x, y));
+    }
+
+    /** Очищает ломаную следа. Клетки в индексе комнаты очищает {@link RoomSim#clearTrail}. */
+    void clearTrail() { trailPts.clear(); trailCells = 0; trailSentLen = 0; }
+}
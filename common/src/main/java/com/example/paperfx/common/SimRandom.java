@@ -0,0 +1,26 @@
+package com.example.paperfx.common;
+
+/**
+ * Детерминированный генератор случайных чисел (SplitMix64) с открытым состоянием.
+ * <p>
+ * В отличие от {@link java.util.Random}, состояние можно передать по сети (ключевой кадр lockstep)
+ * и продолжить ту же последовательность на другой стороне.
+ */
+
+public final class SimRandom {
+    public long state;
+
+    public SimRandom(long seed) { this.state = seed; }
+
+    public long nextLong() {
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Случайное число в диапазоне {@code [0, bound)}. */
+    public int nextInt(int bound) {
+        return (int) Math.floorMod(nextLong(), (long) bound);
+    }
+}
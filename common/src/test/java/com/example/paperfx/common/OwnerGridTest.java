@@ -0,0 +1,117 @@
+package com.example.paperfx.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Счётчики, прямоугольники значений, выделение чанков и список изменённых чанков {@link OwnerGrid}. */
+class OwnerGridTest {
+    @Test
+    void countsAndBoundsFollowWrites() {
+        OwnerGrid g = new OwnerGrid(100, 70, 3);
+        assertFalse(g.hasBounds(1));
+        g.set(10, 5, 1);
+        g.set(40, 60, 1);
+        g.set(41, 60, 2);
+        assertEquals(2, g.count(1));
+        assertEquals(1, g.count(2));
+        assertEquals(10, g.minX(1));
+        assertEquals(40, g.maxX(1));
+        assertEquals(5, g.minY(1));
+        assertEquals(60, g.maxY(1));
+
+        // Перезапись чужой клетки переносит её между счётчиками.
+        g.set(41, 60, 1);
+        assertEquals(3, g.count(1));
+        assertEquals(0, g.count(2));
+        assertEquals(1, g.get(41, 60));
+        assertEquals(0, g.get(0, 0));
+    }
+
+    @Test
+    void chunksAreAllocatedOnFirstWriteAndFreedWhenEmpty() {
+        OwnerGrid g = new OwnerGrid(100, 70, 3);
+        assertEquals(4 * 3, g.chunkCount());
+        assertEquals(0, g.allocatedChunks());
+
+        g.set(5, 5, 0);
+        assertEquals(0, g.allocatedChunks(), "zero write does not allocate");
+
+        g.set(5, 5, 1);
+        g.set(6, 5, 1);
+        g.set(99, 69, 2);
+        assertEquals(2, g.allocatedChunks());
+        assertNotNull(g.chunk(0));
+        assertNull(g.chunk(1));
+
+        g.set(5, 5, 0);
+        assertEquals(2, g.allocatedChunks());
+        g.set(6, 5, 0);
+        assertEquals(1, g.allocatedChunks());
+        assertNull(g.chunk(0));
+        g.set(99, 69, 0);
+        assertEquals(0, g.allocatedChunks());
+    }
+
+    @Test
+    void dirtyChunksAreListedOnceUntilCleared() {
+        OwnerGrid g = new OwnerGrid(100, 70, 3);
+        g.set(1, 1, 1);
+        g.set(2, 1, 1);
+        g.set(OwnerGrid.CHUNK, 0, 1);
+        g.set(3, 1, 1);
+        assertEquals(2, g.dirtyCount());
+        assertEquals(0, g.dirtyChunk(0));
+        assertEquals(1, g.dirtyChunk(1));
+
+        g.clearDirty();
+        assertEquals(0, g.dirtyCount());
+        g.set(1, 1, 1);
+        assertEquals(0, g.dirtyCount(), "same value is not a change");
+        g.set(1, 1, 2);
+        assertEquals(1, g.dirtyCount());
+    }
+
+    @Test
+    void clearRemovesOnlyThatValue() {
+        OwnerGrid g = new OwnerGrid(100, 70, 3);
+        for (int y = 10; y < 50; y++) {
+            for (int x = 20; x < 60; x++) g.set(x, y, (x + y) % 2 == 0 ? 1 : 2);
+        }
+        int twos = g.count(2);
+        g.clear(1);
+        assertEquals(0, g.count(1));
+        assertFalse(g.hasBounds(1));
+        assertEquals(twos, g.count(2));
+        for (int y = 10; y < 50; y++) {
+            for (int x = 20; x < 60; x++) assertEquals((x + y) % 2 == 0 ? 0 : 2, g.get(x, y));
+        }
+
+        g.clear(2);
+        assertEquals(0, g.allocatedChunks());
+    }
+
+    @Test
+    void toArrayAndLoadRoundTrip() {
+        OwnerGrid g = new OwnerGrid(100, 70, 3);
+        g.set(0, 0, 1);
+        g.set(99, 0, 2);
+        g.set(33, 40, 3);
+        g.set(99, 69, 1);
+
+        int[] cells = g.toArray();
+        assertEquals(g.size(), cells.length);
+        assertEquals(2, cells[99]);
+        assertEquals(3, cells[40 * 100 + 33]);
+
+        OwnerGrid copy = new OwnerGrid(100, 70, 3);
+        copy.load(cells);
+        assertArrayEquals(cells, copy.toArray());
+        for (int v = 1; v <= 3; v++) {
+            assertEquals(g.count(v), copy.count(v));
+            assertEquals(g.minX(v), copy.minX(v));
+            assertEquals(g.maxY(v), copy.maxY(v));
+        }
+        assertEquals(g.allocatedChunks(), copy.allocatedChunks());
+    }
+}
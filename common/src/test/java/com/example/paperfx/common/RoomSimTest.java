@@ -0,0 +1,133 @@
+package com.example.paperfx.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Детерминизм симуляции (на нём держится lockstep) и захват территории. */
+class RoomSimTest {
+    private static RoomSim simWithPlayers(long seed, RoomProfile profile, int players) {
+        RoomSim sim = new RoomSim(seed, profile);
+        for (int i = 1; i <= players; i++) sim.addPlayer(new SimPlayer("p" + i, "user" + i, i, "#fff"));
+        return sim;
+    }
+
+    /** Входы одного тика для всех игроков: тройки {@code idx, dx, dy}, направление меняется изредка. */
+    private static int[] randomInputs(Random rnd, RoomSim sim) {
+        int[] in = new int[sim.capacity * 3];
+        int n = 0;
+        for (SimPlayer p : sim.players()) {
+            int dx = p.inputDx, dy = p.inputDy;
+            if (rnd.nextInt(6) == 0 || (dx == 0 && dy == 0)) {
+                int d = rnd.nextInt(4);
+                dx = (d == 0) ? 1 : (d == 2) ? -1 : 0;
+                dy = (d == 1) ? 1 : (d == 3) ? -1 : 0;
+            }
+            in[n++] = p.idx;
+            in[n++] = dx;
+            in[n++] = dy;
+        }
+        return java.util.Arrays.copyOf(in, n);
+    }
+
+    @Test
+    void sameSeedAndInputsGiveSameChecksums() {
+        for (RoomProfile profile : RoomProfile.ALL) {
+            RoomSim a = simWithPlayers(42, profile, Math.min(8, profile.capacity()));
+            RoomSim b = simWithPlayers(42, profile, Math.min(8, profile.capacity()));
+            assertEquals(a.checksum(), b.checksum(), profile.name());
+
+            Random rnd = new Random(7);
+            for (int t = 0; t < 600; t++) {
+                int[] in = randomInputs(rnd, a);
+                a.applyInputs(in);
+                b.applyInputs(in);
+                a.step();
+                b.step();
+                assertEquals(a.checksum(), b.checksum(), profile.name() + " tick " + a.tick);
+            }
+        }
+    }
+
+    @Test
+    void differentSeedsDiverge() {
+        RoomSim a = simWithPlayers(1, RoomProfile.CLASSIC, 4);
+        RoomSim b = simWithPlayers(2, RoomProfile.CLASSIC, 4);
+        assertNotEquals(a.checksum(), b.checksum());
+    }
+
+    @Test
+    void keyframeRestoresTheSameSimulation() throws Exception {
+        RoomSim server = simWithPlayers(5, RoomProfile.CLASSIC, 4);
+        Random rnd = new Random(11);
+        for (int t = 0; t < 200; t++) {
+            server.applyInputs(randomInputs(rnd, server));
+            server.step();
+        }
+
+        // Ключевой кадр проходит через JSON, как по сети.
+        Messages.Keyframe kf = Net.MAPPER.readValue(Net.toJson(server.toKeyframe("R")), Messages.Keyframe.class);
+        RoomSim client = RoomSim.fromKeyframe(kf);
+        assertEquals(server.checksum(), client.checksum());
+
+        for (int t = 0; t < 300; t++) {
+            int[] in = randomInputs(rnd, server);
+            server.applyInputs(in);
+            client.applyInputs(in);
+            server.step();
+            client.step();
+            assertEquals(server.checksum(), client.checksum(), "tick " + server.tick);
+        }
+    }
+
+    @Test
+    void loopBackToOwnTerritoryCapturesTheEnclosedArea() {
+        RoomSim sim = new RoomSim(3);
+        SimPlayer p = new SimPlayer("p1", "user1", 1, "#fff");
+        sim.addPlayer(p);
+        sim.owners.clear(p.idx);
+        sim.placeAt(p, 40, 30);
+        int start = sim.owners.count(p.idx);
+        assertEquals((2 * RoomSim.SPAWN_R + 1) * (2 * RoomSim.SPAWN_R + 1), start);
+
+        // Вправо за пределы территории, вниз, влево и вверх — пока след не замкнётся на своей территории.
+        int[][] legs = {{1, 0, 6}, {0, 1, 6}, {-1, 0, 6}, {0, -1, 20}};
+        for (int[] leg : legs) {
+            for (int s = 0; s < leg[2]; s++) {
+                sim.applyInputs(new int[]{p.idx, leg[0], leg[1]});
+                sim.step();
+                if (leg[1] == -1 && p.trailPts.isEmpty()) break;
+            }
+        }
+
+        assertTrue(p.trailPts.isEmpty(), "trail closed");
+        assertEquals(0, sim.trailOwners.count(p.idx));
+        assertTrue(sim.owners.count(p.idx) > start, "territory grew");
+        assertEquals(sim.owners.count(p.idx), p.score);
+        assertCountsAndBoundsMatch(sim.owners, p.idx);
+    }
+
+    @Test
+    void removingPlayerClearsTerritoryAndFreesChunks() {
+        RoomSim sim = simWithPlayers(9, RoomProfile.ARENA, 3);
+        assertTrue(sim.owners.allocatedChunks() > 0);
+        for (int i = 1; i <= 3; i++) sim.removePlayer(i, false);
+        for (int i = 1; i <= 3; i++) assertEquals(0, sim.owners.count(i));
+        assertEquals(0, sim.owners.allocatedChunks());
+    }
+
+    /** Счётчик значения совпадает с полным пересчётом, и все его клетки внутри прямоугольника. */
+    static void assertCountsAndBoundsMatch(OwnerGrid g, int v) {
+        int n = 0;
+        for (int y = 0; y < g.height; y++) {
+            for (int x = 0; x < g.width; x++) {
+                if (g.get(x, y) != v) continue;
+                n++;
+                assertTrue(x >= g.minX(v) && x <= g.maxX(v) && y >= g.minY(v) && y <= g.maxY(v), "cell in bounds");
+            }
+        }
+        assertEquals(n, g.count(v));
+    }
+}
@@ -0,0 +1,8 @@
+plugins { application }
+
+dependencies {
+    implementation(project(":common"))
+}
+
+// ./gradlew :loadgen:run --args="--bots 50 --duration 60 --out build/loadgen.json"
+application { mainClass.set("com.example.paperfx.loadgen.LoadGenMain") }
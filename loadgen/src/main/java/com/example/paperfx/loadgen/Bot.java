@@ -0,0 +1,227 @@
+package com.example.paperfx.loadgen;
+
+import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Бот нагрузочного теста: одно TCP-соединение, регистрация/логин, движение, чат, наблюдение.
+ * <p>
+ * Сетевой поток бота только читает и считает; действия выполняет {@link #act} из общего планировщика.
+ */
+
+final class Bot {
+    private static final long HEARTBEAT_NS = 500_000_000L;
+    private static final int[][] DIRS = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+
+    private final LoadGenMain.Config cfg;
+    private final LoadStats stats;
+    private final String username;
+    private final boolean spectate;
+    private final Random rnd;
+
+    private Socket socket;
+    private PrintWriter out;
+    private volatile boolean running = true;
+
+    private volatile boolean authed = false;
+    private volatile boolean triedLogin = false;
+    private volatile String playerId;
+    private volatile String roomId;
+    private volatile boolean spectator = false;
+    private volatile boolean spectateSent = false;
+
+    // Движение: текущее направление и его номер (seq), когда отправлено (для задержки input → state).
+    private int dir = -1;
+    private long seq = 0;
+    private long nextTurnNs = 0;
+    private long lastSentNs = 0;
+    private long nextChatNs = 0;
+    private int chatN = 0;
+    private final ConcurrentSkipListMap<Long, Long> pendingSeq = new ConcurrentSkipListMap<>();
+
+    Bot(LoadGenMain.Config cfg, LoadStats stats, int n, boolean spectate) {
+        this.cfg = cfg;
+        this.stats = stats;
+        this.username = cfg.prefix + n;
+        this.spectate = spectate;
+        this.rnd = new Random(cfg.seed * 31 + n);
+    }
+
+    void connect() {
+        try {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(cfg.host, cfg.port), 5_000);
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            stats.connected.incrementAndGet();
+
+            Thread t = new Thread(this::readLoop, "bot-" + username);
+            t.setDaemon(true);
+            t.start();
+
+            send(auth("register"));
+        } catch (IOException e) {
+            stats.connectFailures.incrementAndGet();
+            running = false;
+        }
+    }
+
+    void close() {
+        running = false;
+        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+    }
+
+    /** Вызывается планировщиком каждые ~50 мс. */
+    void act(long now) {
+        if (!running || !authed || roomId == null) return;
+
+        if (spectate && !spectateSent && playerId != null) {
+            spectateSent = true;
+            ObjectNode n = Net.MAPPER.createObjectNode();
+            n.put("type", "join_room");
+            n.put("roomId", roomId);
+            n.put("spectator", true);
+            send(n);
+        }
+
+        if (!spectator && playerId != null) move(now);
+
+        if (cfg.chatEveryMs > 0 && now >= nextChatNs) {
+            if (nextChatNs != 0) {
+                ObjectNode n = Net.MAPPER.createObjectNode();
+                n.put("type", "chat_send");
+                n.put("text", "load " + username + " #" + (++chatN));
+                send(n);
+                stats.chatsSent.incrementAndGet();
+            }
+            nextChatNs = now + cfg.chatEveryMs * 1_000_000L + rnd.nextInt(1000) * 1_000_000L;
+        }
+    }
+
+    private void move(long now) {
+        if (now >= nextTurnNs) {
+            if (cfg.script) {
+                // Квадрат: вправо, вниз, влево, вверх — участки одинаковой длины.
+                dir = (dir + 1) % 4;
+                nextTurnNs = now + cfg.legMs * 1_000_000L;
+            } else {
+                int d;
+                do { d = rnd.nextInt(4); } while (d == dir);
+                dir = d;
+                nextTurnNs = now + (300 + rnd.nextInt(1200)) * 1_000_000L;
+            }
+            seq++;
+            pendingSeq.put(seq, now);
+            sendInput(now);
+        } else if (now - lastSentNs > HEARTBEAT_NS) {
+            sendInput(now);
+        }
+    }
+
+    private void sendInput(long now) {
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("type", "input");
+        n.put("dx", DIRS[dir][0]);
+        n.put("dy", DIRS[dir][1]);
+        n.put("seq", seq);
+        send(n);
+        lastSentNs = now;
+        stats.inputsSent.incrementAndGet();
+    }
+
+    private ObjectNode auth(String type) {
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("type", type);
+        n.put("username", username);
+        n.put("password", cfg.password);
+        return n;
+    }
+
+    private synchronized void send(ObjectNode n) {
+        if (out == null) return;
+        try { out.println(Net.MAPPER.writeValueAsString(n)); }
+        catch (IOException ignored) {}
+    }
+
+    private void readLoop() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                stats.bytesIn.addAndGet(line.length() + 1L);
+                stats.linesIn.incrementAndGet();
+                onLine(line);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (running) stats.disconnects.incrementAndGet();
+            running = false;
+        }
+    }
+
+    private void onLine(String line) throws IOException {
+        long t0 = System.nanoTime();
+        JsonNode n = Net.parse(line);
+        String type = n.path("type").asText("");
+        switch (type) {
+            case "state" -> {
+                if (n.path("same").asBoolean(false)) return; // state не изменился
+                Messages.State st = Net.MAPPER.treeToValue(n, Messages.State.class);
+                long t1 = System.nanoTime();
+                stats.states.incrementAndGet();
+                stats.decodeNanos.addAndGet(t1 - t0);
+                onState(st, t1);
+            }
+            case "ping" -> {
+                // Отвечаем как настоящий клиент: сервер считает по pong RTT и смещение часов.
+                ObjectNode pong = Net.MAPPER.createObjectNode();
+                pong.put("type", "pong");
+                pong.set("t", n.path("t"));
+                pong.set("st", n.path("st"));
+                pong.put("ct", System.currentTimeMillis());
+                send(pong);
+            }
+            case "auth_ok" -> {
+                authed = true;
+                stats.authed.incrementAndGet();
+            }
+            case "room_joined" -> {
+                roomId = n.path("roomId").asText(null);
+                spectator = n.path("spectator").asBoolean(false);
+                if (!spectator) playerId = n.path("playerId").asText(null);
+                pendingSeq.clear();
+            }
+            case "error" -> {
+                String reason = n.path("reason").asText("error");
+                if (!authed && !triedLogin) {
+                    // Пользователь уже зарегистрирован в прошлых прогонах — входим.
+                    triedLogin = true;
+                    send(auth("login"));
+                } else {
+                    stats.error(reason);
+                }
+            }
+            default -> { /* чат, профиль и т.п. — только трафик */ }
+        }
+    }
+
+    private void onState(Messages.State st, long now) {
+        String pid = playerId;
+        if (pid == null || spectator || st.players == null || pendingSeq.isEmpty()) return;
+        for (Messages.Player p : st.players) {
+            if (!pid.equals(p.playerId)) continue;
+            var acked = pendingSeq.headMap(p.ackSeq, true);
+            for (Long sentNs : acked.values()) stats.recordLatency((now - sentNs) / 1_000);
+            acked.clear();
+            return;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.paperfx.loadgen;
+
+import com.example.paperfx.common.Net;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузочный генератор без JavaFX: N ботов подключаются к серверу по TCP, регистрируются или входят,
+ * двигаются (случайно или по квадрату), пишут в чат, часть из них наблюдает.
+ * <p>
+ * Печатает ход прогона раз в 5 с, а в конце — JSON-сводку (задержка input → state, трафик,
+ * разбор state, обрывы соединений).
+ * <pre>
+ * ./gradlew :loadgen:run --args="--bots 50 --duration 60 --spectators 5 --chat 10 --out build/run1.json"
+ * </pre>
+ */
+
+public final class LoadGenMain {
+    private LoadGenMain() {}
+
+    static final class Config {
+        String host = "127.0.0.1";
+        int port = 7777;
+        int bots = 10;
+        int spectators = 0;
+        int durationSec = 30;
+        int rampMs = 20;
+        String prefix = "bot";
+        String password = "botpass1";
+        boolean script = false;
+        long legMs = 800;
+        long chatEveryMs = 0;
+        long seed = 1;
+        String out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parse(args);
+        LoadStats stats = new LoadStats();
+
+        List<Bot> bots = new ArrayList<>(cfg.bots);
+        ScheduledExecutorService sched = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loadgen");
+            t.setDaemon(true);
+            return t;
+        });
+        sched.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            synchronized (bots) { for (Bot b : bots) b.act(now); }
+        }, 50, 50, TimeUnit.MILLISECONDS);
+
+        System.out.println("[loadgen] " + cfg.bots + " bots -> " + cfg.host + ":" + cfg.port + " for " + cfg.durationSec + " s");
+        long start = System.nanoTime();
+        for (int i = 0; i < cfg.bots; i++) {
+            Bot b = new Bot(cfg, stats, i, i < cfg.spectators);
+            b.connect();
+            synchronized (bots) { bots.add(b); }
+            if (cfg.rampMs > 0) Thread.sleep(cfg.rampMs);
+        }
+
+        long end = start + cfg.durationSec * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(5_000, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            double sec = (System.nanoTime() - start) / 1e9;
+            System.out.printf("[loadgen] t=%.0fs authed=%d states=%d in=%.1f KB/s disconnects=%d%n",
+                    sec, stats.authed.get(), stats.states.get(), stats.bytesIn.get() / 1024.0 / sec, stats.disconnects.get());
+        }
+
+        synchronized (bots) { for (Bot b : bots) b.close(); }
+        sched.shutdownNow();
+
+        String summary = Net.toJson(stats.summary(cfg.bots, (System.nanoTime() - start) / 1e9));
+        System.out.println(summary);
+        if (cfg.out != null) Files.writeString(Path.of(cfg.out), summary + "\n", StandardCharsets.UTF_8);
+    }
+
+    private static Config parse(String[] args) {
+        Config c = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String v = (i + 1 < args.length) ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--host" -> c.host = v;
+                case "--port" -> c.port = Integer.parseInt(v);
+                case "--bots" -> c.bots = Integer.parseInt(v);
+                case "--spectators" -> c.spectators = Integer.parseInt(v);
+                case "--duration" -> c.durationSec = Integer.parseInt(v);
+                case "--ramp-ms" -> c.rampMs = Integer.parseInt(v);
+                case "--prefix" -> c.prefix = v;
+                case "--password" -> c.password = v;
+                case "--mode" -> c.script = "script".equals(v);
+                case "--leg-ms" -> c.legMs = Long.parseLong(v);
+                case "--chat" -> c.chatEveryMs = Long.parseLong(v) * 1000;
+                case "--seed" -> c.seed = Long.parseLong(v);
+                case "--out" -> c.out = v;
+                default -> throw new IllegalArgumentException("unknown arg: " + args[i]);
+            }
+            i++;
+        }
+        return c;
+    }
+}
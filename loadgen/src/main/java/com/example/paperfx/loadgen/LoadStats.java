@@ -0,0 +1,79 @@
+package com.example.paperfx.loadgen;
+
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общие счётчики прогона: соединения, трафик, разбор state, задержка input → state.
+ */
+
+final class LoadStats {
+    final AtomicLong connected = new AtomicLong();
+    final AtomicLong authed = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+
+    final AtomicLong bytesIn = new AtomicLong();
+    final AtomicLong linesIn = new AtomicLong();
+    final AtomicLong states = new AtomicLong();
+    final AtomicLong decodeNanos = new AtomicLong();
+
+    final AtomicLong inputsSent = new AtomicLong();
+    final AtomicLong chatsSent = new AtomicLong();
+    final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    // Задержки input → state (мкс): от отправки нового направления до первого state, где сервер его применил.
+    private long[] latUs = new long[4096];
+    private int latN = 0;
+
+    synchronized void recordLatency(long us) {
+        if (latN == latUs.length) latUs = Arrays.copyOf(latUs, latN * 2);
+        latUs[latN++] = us;
+    }
+
+    void error(String reason) {
+        errors.computeIfAbsent(reason, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /** Сводка прогона в JSON (одна строка — удобно сравнивать прогоны). */
+    synchronized ObjectNode summary(int bots, double seconds) {
+        long[] lat = Arrays.copyOf(latUs, latN);
+        Arrays.sort(lat);
+
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("bots", bots);
+        n.put("seconds", Math.round(seconds * 10) / 10.0);
+        n.put("connected", connected.get());
+        n.put("authed", authed.get());
+        n.put("connectFailures", connectFailures.get());
+        n.put("disconnects", disconnects.get());
+        n.put("bytesIn", bytesIn.get());
+        n.put("bytesInPerSec", Math.round(bytesIn.get() / seconds));
+        n.put("linesIn", linesIn.get());
+        n.put("states", states.get());
+        n.put("decodeUsAvg", states.get() == 0 ? 0 : Math.round(decodeNanos.get() / 1e2 / states.get()) / 10.0);
+        n.put("inputsSent", inputsSent.get());
+        n.put("chatsSent", chatsSent.get());
+
+        ObjectNode l = n.putObject("inputToStateMs");
+        l.put("count", lat.length);
+        l.put("p50", percentileMs(lat, 0.50));
+        l.put("p90", percentileMs(lat, 0.90));
+        l.put("p99", percentileMs(lat, 0.99));
+        l.put("max", lat.length == 0 ? 0 : lat[lat.length - 1] / 1000.0);
+
+        ObjectNode e = n.putObject("errors");
+        errors.forEach((k, v) -> e.put(k, v.get()));
+        return n;
+    }
+
+    private static double percentileMs(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1000.0;
+    }
+}
@@ -5,8 +5,13 @@ plugins { application }
 dependencies {
     implementation(project(":common"))
     implementation("org.postgresql:postgresql:42.7.4")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.11.3")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
+tasks.test { useJUnitPlatform() }
+
 application { mainClass.set("com.example.paperfx.server.ServerMain") }
 
 fun loadDotEnv(): Map<String, String> {
@@ -28,3 +33,11 @@ tasks.withType<JavaExec>().configureEach {
     environment("DB_USER", env["DB_USER"] ?: System.getenv("DB_USER") ?: "paperfx")
     environment("DB_PASS", env["DB_PASS"] ?: System.getenv("DB_PASS") ?: "paperfx")
 }
+
+// Симуляция нагрузки в одном процессе (без сокетов и БД): ./gradlew :server:sim --args="--rooms 500 --ticks 2000"
+tasks.register<JavaExec>("sim") {
+    group = "application"
+    description = "Runs the in-process room simulator"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.paperfx.server.SimMain")
+}
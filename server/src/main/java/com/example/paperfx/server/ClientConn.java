@@ -6,29 +6,62 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Состояние одного подключённого TCP-клиента на сервере.
  * <p>
  * Содержит сокет, потоки ввода/вывода, а также кэш авторизации/профиля/статистики.
+ * Исходящие строки идут через очередь {@link #outbox} и пишутся в сокет отдельным потоком,
+ * так что медленный клиент не блокирует игровой цикл: при переполнении очереди соединение закрывается.
  */
 
 final class ClientConn implements Closeable {
+    /** Сколько строк может ждать отправки (≈12 с state при 20 Гц). */
+    static final int OUTBOX_MAX = 256;
+    /** Метка в очереди: дописать то, что перед ней, и закрыть соединение. */
+    private static final String CLOSE = new String("close");
+    /** Сколько ждать, пока поток записи допишет очередь перед меткой {@link #CLOSE}. */
+    private static final long FLUSH_TIMEOUT_MS = 2_000;
+
     final ServerMain server;
     final Socket socket;
-    final BufferedReader in;
-    final PrintWriter out;
+    private final LineReader in;
+    /** Лимиты входящих сообщений (только поток чтения). */
+    private final InboundLimiter limiter = new InboundLimiter(System.nanoTime());
+    private final Writer out;
+    final ArrayBlockingQueue<String> outbox = new ArrayBlockingQueue<>(OUTBOX_MAX);
+    private volatile Thread writer;
+    /** В очереди стоит {@link #CLOSE}: соединение закроет поток записи, дописав очередь. */
+    private volatile boolean closing;
+
+    /** Время подключения и последней входящей строки ({@code System.nanoTime()}) — для отключения молчащих клиентов. */
+    final long connectedNs = System.nanoTime();
+    volatile long lastRecvNs = connectedNs;
+    /** Почему соединение закрыто сервером по таймауту ({@code null} — не по таймауту). */
+    volatile String reapReason;
 
     volatile boolean authed = false;
     volatile String userId;
     volatile String username;
 
     volatile String roomId = "MAIN";
+    /** Комната, в составе которой соединение учтено ({@link Room#members}); {@code null} — пока не вошло. */
+    volatile Room room;
+    /** Номер пребывания в комнате: растёт при каждом переходе ({@link ServerMain#moveClient}); база дельт {@link SendRate}. */
+    volatile int roomEpoch = 0;
     volatile String playerId;
     volatile boolean spectator = false;
 
     volatile long lastChatMs = 0;
 
+    /** Задержка клиента по ping/pong сервера. */
+    final RttTracker rtt = new RttTracker();
+    /** Частота рассылки state этому клиенту (решает игровой цикл). */
+    final SendRate sendRate = new SendRate();
+
     // ---- кэш профиля/статистики (загружается при логине) ----
     // Итоговые значения за всё время (из БД + накопленные дельты в памяти)
     volatile long killsTotal = 0;
@@ -61,35 +94,125 @@ final class ClientConn implements Closeable {
     ClientConn(ServerMain server, Socket socket) throws IOException {
         this.server = server;
         this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-        this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+        this.in = new LineReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+                InboundLimiter.maxLineChars);
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
     }
 
     void start() {
+        Thread w = new Thread(this::writeLoop, "client-out-" + socket.getPort());
+        w.setDaemon(true);
+        writer = w;
+        w.start();
+
         Thread t = new Thread(this::run, "client-" + socket.getPort());
         t.setDaemon(true);
         t.start();
     }
     /**
      * Основной цикл чтения: читает JSONL строки из сокета и передаёт на обработку серверу.
+     * Слишком длинные строки и сообщения сверх лимитов ({@link InboundLimiter}) до обработчиков не доходят.
      */
 
     void run() {
         try {
             String line;
             while ((line = in.readLine()) != null) {
+                long now = System.nanoTime();
+                lastRecvNs = now;
+                if (line == LineReader.TOO_LONG) {
+                    if (!flood("line_too_long", now)) break;
+                    continue;
+                }
+                if (!limiter.allowLine(now)) {
+                    if (!flood("any", now)) break;
+                    continue;
+                }
                 JsonNode n = Net.parse(line);
                 String type = n.path("type").asText("");
+                server.countIn(type, ServerMain.utf8Length(line) + 1);
+                if (!limiter.allow(type, now)) {
+                    if (!flood(type, now)) break;
+                    continue;
+                }
                 server.onMessage(this, type, n);
             }
+        } catch (SocketTimeoutException e) {
+            server.reap(this, "read_timeout");
         } catch (Exception ignored) {
         } finally {
             server.onDisconnected(this);
         }
     }
 
+    /** Нарушение лимита: учёт и действие {@link InboundLimiter#action}. {@code false} — соединение надо закрыть. */
+    private boolean flood(String what, long nowNs) {
+        server.onFlood(what);
+        switch (InboundLimiter.action) {
+            case DROP -> { return true; }
+            case ERROR -> {
+                if (limiter.shouldReport(nowNs)) sendJson(ServerMain.error(what.equals("line_too_long") ? "line_too_long" : "rate_limited"));
+                return true;
+            }
+            default -> {
+                sendJson(ServerMain.error(what.equals("line_too_long") ? "line_too_long" : "rate_limited"));
+                closeAfterFlush();
+                return false;
+            }
+        }
+    }
+
+    /** Ставит строку в очередь на отправку; если клиент не успевает её разбирать — отключаем его. */
     void send(String jsonLine) {
-        try { out.println(jsonLine); } catch (Exception ignored) {}
+        if (enqueue(jsonLine)) server.countOut(jsonLine, 1);
+    }
+
+    /**
+     * Как {@link #send}, но без учёта в метриках: рассылки ставят одну строку многим клиентам и учитывают её
+     * разом ({@link ServerMain#countOut(String, int)}). {@code true}, если строка поставлена в очередь.
+     */
+    boolean enqueue(String jsonLine) {
+        if (jsonLine == null) return false;
+        if (!outbox.offer(jsonLine)) {
+            server.outboxOverflows.inc();
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /** Отправляет уже поставленные в очередь строки и закрывает соединение. */
+    void closeAfterFlush() {
+        if (outbox.offer(CLOSE)) closing = true;
+        else close();
+    }
+
+    /**
+     * Закрытие при отключении ({@link ServerMain#onDisconnected}): если ждёт {@link #closeAfterFlush()},
+     * сначала даём потоку записи дописать очередь (например, ошибку {@code rate_limited}), иначе закрываем сразу.
+     */
+    void closeWhenFlushed() {
+        Thread w = writer;
+        if (closing && w != null && w != Thread.currentThread()) {
+            try { w.join(FLUSH_TIMEOUT_MS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        close();
+    }
+
+    /** Поток записи: строки из очереди в сокет, flush — когда очередь опустела (несколько строк за один системный вызов). */
+    private void writeLoop() {
+        try {
+            while (true) {
+                String line = outbox.take();
+                if (line == CLOSE) { out.flush(); break; }
+                out.write(line);
+                out.write('\n');
+                if (outbox.isEmpty()) out.flush();
+            }
+        } catch (InterruptedException | IOException ignored) {
+        } finally {
+            close();
+        }
     }
     /**
      * Отправляет JSON-объект клиенту одной строкой.
@@ -101,5 +224,7 @@ final class ClientConn implements Closeable {
 
     @Override public void close() {
         try { socket.close(); } catch (Exception ignored) {}
+        Thread w = writer;
+        if (w != null && w != Thread.currentThread()) w.interrupt();
     }
 }
\ No newline at end of file
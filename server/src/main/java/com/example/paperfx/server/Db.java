@@ -9,12 +9,12 @@ import java.util.List;
 import java.util.UUID;
 
 /**
- * Слой работы с базой данных (PostgreSQL) через JDBC.
+ * Реализация {@link Storage} на PostgreSQL через JDBC.
  * <p>
  * Отвечает за пользователей, результаты (top-scores) и статистику/достижения.
  */
 
-public final class Db {
+public final class Db implements Storage {
     private final String url;
     private final String user;
     private final String pass;
@@ -29,6 +29,7 @@ public final class Db {
         return DriverManager.getConnection(url, user, pass);
     }
 
+    @Override
     public void init() throws SQLException {
         try (Connection c = get(); Statement st = c.createStatement()) {
             st.execute(
@@ -76,11 +77,11 @@ public final class Db {
         }
     }
 
+    @Override
     public RegisterResult register(String username, String password) throws SQLException {
-        username = normalize(username);
-        if (username.length() < 3 || username.length() > 24) return RegisterResult.error("username must be 3..24 chars");
-        if (!username.matches("[a-zA-Z0-9_\\-]+")) return RegisterResult.error("username allowed: [a-zA-Z0-9_-]");
-        if (password == null || password.length() < 6) return RegisterResult.error("password must be >= 6 chars");
+        username = Storage.normalize(username);
+        String invalid = Storage.validateRegistration(username, password);
+        if (invalid != null) return RegisterResult.error(invalid);
 
         UUID id = UUID.randomUUID();
         String salt = PasswordUtil.newSaltBase64();
@@ -104,8 +105,9 @@ public final class Db {
         return RegisterResult.ok(id.toString(), username, 0);
     }
 
+    @Override
     public LoginResult login(String username, String password) throws SQLException {
-        username = normalize(username);
+        username = Storage.normalize(username);
         try (Connection c = get();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id, pass_salt, pass_hash, best_score FROM app_users WHERE username = ?"
@@ -126,6 +128,7 @@ public final class Db {
         }
     }
 
+    @Override
     public void recordResult(String userId, int score) throws SQLException {
         UUID uid = UUID.fromString(userId);
         try (Connection c = get()) {
@@ -156,6 +159,7 @@ public final class Db {
         }
     }
 
+    @Override
     public List<Messages.LeaderEntry> topBest(int limit) throws SQLException {
         limit = Math.max(1, Math.min(limit, 50));
         List<Messages.LeaderEntry> out = new ArrayList<>();
@@ -171,8 +175,7 @@ public final class Db {
         return out;
     }
 
-    
-
+    @Override
     public UserStats loadOrCreateStats(String userId) throws SQLException {
         UUID uid = UUID.fromString(userId);
         try (Connection c = get()) {
@@ -204,6 +207,7 @@ public final class Db {
      * - kills_total and area_total are incremented by deltas.
      * - best_* are updated using GREATEST.
      */
+    @Override
     public void applyStats(String userId, long addKills, long addArea, int bestKillsInGameCandidate, int bestKillStreakCandidate) throws SQLException {
         UUID uid = UUID.fromString(userId);
         try (Connection c = get();
@@ -226,6 +230,7 @@ public final class Db {
         }
     }
 
+    @Override
     public boolean unlockAchievement(String userId, String code) throws SQLException {
         UUID uid = UUID.fromString(userId);
         try (Connection c = get();
@@ -239,6 +244,7 @@ public final class Db {
         }
     }
 
+    @Override
     public List<String> listAchievementCodes(String userId) throws SQLException {
         UUID uid = UUID.fromString(userId);
         List<String> out = new ArrayList<>();
@@ -253,16 +259,4 @@ public final class Db {
         }
         return out;
     }
-
-    public record UserStats(long kills, long area, int bestKillsInGame, int bestKillStreak) {}
-private static String normalize(String s) { return s == null ? "" : s.trim(); }
-
-    public record RegisterResult(boolean ok, String userId, String username, int bestScore, String error) {
-        public static RegisterResult ok(String id, String u, int best) { return new RegisterResult(true, id, u, best, null); }
-        public static RegisterResult error(String msg) { return new RegisterResult(false, null, null, 0, msg); }
-    }
-    public record LoginResult(boolean ok, String userId, String username, int bestScore, String error) {
-        public static LoginResult ok(String id, String u, int best) { return new LoginResult(true, id, u, best, null); }
-        public static LoginResult error(String msg) { return new LoginResult(false, null, null, 0, msg); }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+
+/**
+ * Встроенное хранилище без внешней БД: данные в памяти ({@link MemoryStorage}) плюс журнал JSONL на диске.
+ * <p>
+ * Каждое изменение дописывается в файл одной строкой ({@code user}, {@code result}, {@code stats}, {@code ach}).
+ * При старте журнал проигрывается и сразу сжимается: файл переписывается по строке на пользователя
+ * с итоговыми значениями, так что размер файла не растёт между перезапусками.
+ * Подходит для одного процесса сервера; для нескольких — {@link Db}.
+ */
+
+final class FileStorage extends MemoryStorage {
+    private final Path file;
+    private BufferedWriter out;
+
+    FileStorage(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void init() throws SQLException {
+        try {
+            if (Files.exists(file)) replay();
+            compact();
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new SQLException("storage file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public RegisterResult register(String username, String password) throws SQLException {
+        RegisterResult r = super.register(username, password);
+        if (!r.ok()) return r;
+        User u = userById(r.userId());
+        ObjectNode n = op("user", u.id);
+        n.put("name", u.username);
+        n.put("salt", u.salt);
+        n.put("hash", u.hash);
+        append(n);
+        return r;
+    }
+
+    @Override
+    public void recordResult(String userId, int score) throws SQLException {
+        super.recordResult(userId, score);
+        if (userById(userId) == null) return;
+        ObjectNode n = op("result", userId);
+        n.put("score", score);
+        append(n);
+    }
+
+    @Override
+    public void applyStats(String userId, long addKills, long addArea, int bestKillsInGameCandidate, int bestKillStreakCandidate) throws SQLException {
+        super.applyStats(userId, addKills, addArea, bestKillsInGameCandidate, bestKillStreakCandidate);
+        if (userById(userId) == null) return;
+        ObjectNode n = op("stats", userId);
+        n.put("kills", Math.max(0, addKills));
+        n.put("area", Math.max(0, addArea));
+        n.put("bestKillsInGame", bestKillsInGameCandidate);
+        n.put("bestKillStreak", bestKillStreakCandidate);
+        append(n);
+    }
+
+    @Override
+    public boolean unlockAchievement(String userId, String code) throws SQLException {
+        boolean inserted = super.unlockAchievement(userId, code);
+        if (inserted) {
+            ObjectNode n = op("ach", userId);
+            n.put("code", code);
+            append(n);
+        }
+        return inserted;
+    }
+
+    // ---- журнал ----
+
+    private void replay() throws IOException, SQLException {
+        int lineNo = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                JsonNode n;
+                try { n = Net.parse(line); }
+                catch (IOException e) {
+                    // Оборванная последняя строка (падение во время записи) — пропускаем.
+                    System.err.println("[storage] skip bad line " + lineNo + " in " + file);
+                    continue;
+                }
+                apply(n);
+            }
+        }
+    }
+
+    private void apply(JsonNode n) throws SQLException {
+        String id = n.path("id").asText("");
+        if ("user".equals(n.path("op").asText())) {
+            User u = putUser(id, n.path("name").asText(), n.path("salt").asText(), n.path("hash").asText());
+            if (u == null) return;
+            synchronized (u) {
+                u.bestScore = n.path("bestScore").asInt(0);
+                u.gamesPlayed = n.path("gamesPlayed").asInt(0);
+                u.kills = n.path("kills").asLong(0);
+                u.area = n.path("area").asLong(0);
+                u.bestKillsInGame = n.path("bestKillsInGame").asInt(0);
+                u.bestKillStreak = n.path("bestKillStreak").asInt(0);
+                for (JsonNode c : n.path("ach")) u.achievements.add(c.asText());
+            }
+            return;
+        }
+        User u = userById(id);
+        if (u == null) return;
+        switch (n.path("op").asText()) {
+            case "result" -> super.recordResult(id, n.path("score").asInt());
+            case "stats" -> super.applyStats(id, n.path("kills").asLong(), n.path("area").asLong(),
+                    n.path("bestKillsInGame").asInt(), n.path("bestKillStreak").asInt());
+            case "ach" -> super.unlockAchievement(id, n.path("code").asText());
+            default -> {}
+        }
+    }
+
+    /** Переписывает журнал снимком: по одной строке {@code user} с итоговыми значениями. */
+    private void compact() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (User u : users()) {
+                ObjectNode n = op("user", u.id);
+                synchronized (u) {
+                    n.put("name", u.username);
+                    n.put("salt", u.salt);
+                    n.put("hash", u.hash);
+                    n.put("bestScore", u.bestScore);
+                    n.put("gamesPlayed", u.gamesPlayed);
+                    n.put("kills", u.kills);
+                    n.put("area", u.area);
+                    n.put("bestKillsInGame", u.bestKillsInGame);
+                    n.put("bestKillStreak", u.bestKillStreak);
+                    var ach = n.putArray("ach");
+                    for (String c : u.achievements) ach.add(c);
+                }
+                w.write(Net.toJson(n));
+                w.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ObjectNode op(String op, String id) {
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("op", op);
+        n.put("id", id);
+        return n;
+    }
+
+    private synchronized void append(ObjectNode n) throws SQLException {
+        try {
+            out.write(Net.toJson(n));
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            throw new SQLException("storage file " + file + ": " + e.getMessage(), e);
+        }
+    }
+}
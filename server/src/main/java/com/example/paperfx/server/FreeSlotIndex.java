@@ -0,0 +1,59 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.RoomProfile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Индекс комнат по числу свободных мест для автоматического распределения игроков.
+ * <p>
+ * Комнаты лежат в корзинах по числу свободных мест ({@code byFree}); комната переезжает между корзинами при входе/выходе игрока
+ * ({@link #update}), так что и обновление, и выбор комнаты ({@link #pick}) не зависят от числа комнат —
+ * перебирается не больше {@code CLASSIC.capacity()} корзин. Выбирается самая заполненная комната, где ещё есть место:
+ * игроки собираются вместе, а не размазываются по полупустым комнатам.
+ * <p>
+ * В индекс попадают только {@linkplain Room#autoJoinable() обычные} комнаты: в арену, большую карту или lockstep-комнату
+ * игрок попадает лишь явным {@code join_room}.
+ */
+
+final class FreeSlotIndex {
+    /** Корзина {@code i} — комнаты с {@code i} свободными местами. */
+    private final List<LinkedHashSet<Room>> byFree = new ArrayList<>();
+    private final HashMap<Room, Integer> freeOf = new HashMap<>();
+
+    FreeSlotIndex() {
+        for (int i = 0; i <= RoomProfile.CLASSIC.capacity(); i++) byFree.add(new LinkedHashSet<>());
+    }
+
+    /** Пересчитывает корзину комнаты по текущему числу игроков (вызывается после входа/выхода игрока). */
+    synchronized void update(Room room) {
+        if (!room.autoJoinable()) return;
+        int capacity = room.capacity();
+        int free = Math.max(0, Math.min(capacity, capacity - room.players.size()));
+        Integer old = freeOf.put(room, free);
+        if (old != null) {
+            if (old == free) return;
+            byFree.get(old).remove(room);
+        }
+        byFree.get(free).add(room);
+    }
+
+    /** Убирает комнату из индекса (комната удалена). */
+    synchronized void remove(Room room) {
+        Integer old = freeOf.remove(room);
+        if (old != null) byFree.get(old).remove(room);
+    }
+
+    /** Самая заполненная комната со свободным местом, кроме {@code except}; {@code null} — таких нет. */
+    synchronized Room pick(Room except) {
+        for (int free = 1; free < byFree.size(); free++) {
+            for (Room r : byFree.get(free)) {
+                if (r != except) return r;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.paperfx.server;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ограничение входящих сообщений одного соединения: token bucket на каждый тип сообщения
+ * и общий bucket на все строки (проверяется до разбора JSON).
+ * <p>
+ * Лимиты по умолчанию рассчитаны с запасом на честного клиента (ввод при смене направления + heartbeat,
+ * редкие join/create/chat). Переопределяются {@code RATE_LIMITS="input=40:40,chat_send=2:5"} (в секунду : запас).
+ * Что делать с нарушителем — {@code FLOOD_ACTION}: {@code drop} (молча отбросить), {@code error}
+ * (отбросить и ответить {@code rate_limited}, не чаще раза в секунду) или {@code disconnect}.
+ * Используется только потоком чтения соединения, поэтому без синхронизации.
+ */
+
+final class InboundLimiter {
+    enum Action { DROP, ERROR, DISCONNECT }
+
+    record Limit(double perSec, double burst) {}
+
+    /** Действие при нарушении ({@code FLOOD_ACTION}). */
+    static Action action = Action.ERROR;
+    /** Максимальная длина входящей строки (символов); длиннее — нарушение {@code line_too_long}. */
+    static int maxLineChars = 4096;
+
+    /** Все строки соединения вместе. */
+    static final Limit ANY = new Limit(60, 120);
+    /** Типы, которых нет в {@link #limits}, делят один bucket. */
+    static final String OTHER = "other";
+
+    static Map<String, Limit> limits = parseLimits("");
+
+    private static final long ERROR_EVERY_NS = 1_000_000_000L;
+
+    /**
+     * Читает {@code FLOOD_ACTION}, {@code MAX_LINE_CHARS} и {@code RATE_LIMITS} из окружения.
+     * Вызывается из {@code main} до старта сервера, чтобы опечатка в настройках останавливала запуск,
+     * а не всплывала на первом подключении; при ошибке — {@link IllegalArgumentException}, поля не меняются.
+     */
+    static void configure() {
+        Action a = parseAction(ServerMain.envOr("FLOOD_ACTION", "error"));
+        int maxLine = parseMaxLine(ServerMain.envOr("MAX_LINE_CHARS", "4096"));
+        Map<String, Limit> l = parseLimits(ServerMain.envOr("RATE_LIMITS", ""));
+        action = a;
+        maxLineChars = maxLine;
+        limits = l;
+    }
+
+    static Action parseAction(String s) {
+        try {
+            return Action.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("FLOOD_ACTION: expected drop, error or disconnect, got '" + s + "'");
+        }
+    }
+
+    static int parseMaxLine(String s) {
+        int n;
+        try {
+            n = Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("MAX_LINE_CHARS: not a number: '" + s + "'");
+        }
+        if (n <= 0) throw new IllegalArgumentException("MAX_LINE_CHARS: must be positive, got " + n);
+        return n;
+    }
+
+    /** Лимиты по умолчанию с переопределениями {@code type=rate[:burst],...}; неверная запись — исключение. */
+    static Map<String, Limit> parseLimits(String overrides) {
+        Map<String, Limit> m = new HashMap<>();
+        m.put("input", new Limit(40, 40));
+        m.put("ping", new Limit(5, 10));
+        m.put("pong", new Limit(5, 10));
+        m.put("register", new Limit(0.5, 3));
+        m.put("login", new Limit(0.5, 3));
+        m.put("create_room", new Limit(1, 3));
+        m.put("join_room", new Limit(2, 5));
+        m.put("chat_send", new Limit(2, 5));
+        m.put("profile_get", new Limit(2, 5));
+        m.put("resync", new Limit(2, 5));
+        m.put("stats", new Limit(1, 3));
+        m.put(OTHER, new Limit(2, 5));
+        for (String part : overrides.split(",")) {
+            if (part.isBlank()) continue;
+            String[] kv = part.trim().split("=");
+            String[] rb = (kv.length == 2) ? kv[1].split(":") : new String[0];
+            if (kv[0].isBlank() || rb.length < 1 || rb.length > 2) {
+                throw new IllegalArgumentException("RATE_LIMITS: expected type=rate[:burst], got '" + part.trim() + "'");
+            }
+            double rate = parseRate(part, rb[0]);
+            double burst = (rb.length > 1) ? parseRate(part, rb[1]) : Math.max(1, rate);
+            if (burst < 1) throw new IllegalArgumentException("RATE_LIMITS: burst must be at least 1 in '" + part.trim() + "'");
+            m.put(kv[0].trim(), new Limit(rate, burst));
+        }
+        return Map.copyOf(m);
+    }
+
+    private static double parseRate(String part, String s) {
+        double v;
+        try {
+            v = Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("RATE_LIMITS: not a number in '" + part.trim() + "'");
+        }
+        if (!(v >= 0) || Double.isInfinite(v)) {
+            throw new IllegalArgumentException("RATE_LIMITS: negative or infinite value in '" + part.trim() + "'");
+        }
+        return v;
+    }
+
+    /** Классический token bucket: {@code perSec} токенов в секунду, не больше {@code burst}. */
+    static final class TokenBucket {
+        private final double perNs;
+        private final double burst;
+        private double tokens;
+        private long lastNs;
+
+        TokenBucket(Limit l, long nowNs) {
+            this.perNs = l.perSec() / 1e9;
+            this.burst = l.burst();
+            this.tokens = l.burst();
+            this.lastNs = nowNs;
+        }
+
+        boolean tryTake(long nowNs) {
+            tokens = Math.min(burst, tokens + (nowNs - lastNs) * perNs);
+            lastNs = nowNs;
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    private final TokenBucket any;
+    private final HashMap<String, TokenBucket> byType = new HashMap<>();
+    private long lastErrorNs = Long.MIN_VALUE / 2;
+
+    InboundLimiter(long nowNs) {
+        this.any = new TokenBucket(ANY, nowNs);
+    }
+
+    /** Общий лимит строк (до разбора JSON). */
+    boolean allowLine(long nowNs) {
+        return any.tryTake(nowNs);
+    }
+
+    /** Лимит по типу сообщения. */
+    boolean allow(String type, long nowNs) {
+        Map<String, Limit> l = limits;
+        String key = l.containsKey(type) ? type : OTHER;
+        return byType.computeIfAbsent(key, k -> new TokenBucket(l.get(k), nowNs)).tryTake(nowNs);
+    }
+
+    /** Ответить ли ошибкой на это нарушение (при {@link Action#ERROR} — не чаще раза в секунду). */
+    boolean shouldReport(long nowNs) {
+        if (nowNs - lastErrorNs < ERROR_EVERY_NS) return false;
+        lastErrorNs = nowNs;
+        return true;
+    }
+}
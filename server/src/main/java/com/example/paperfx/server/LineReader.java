@@ -0,0 +1,63 @@
+package com.example.paperfx.server;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Чтение строк JSONL с ограничением длины (в отличие от {@link java.io.BufferedReader#readLine()},
+ * который копит строку любой длины в памяти).
+ * <p>
+ * Строка длиннее {@code maxChars} не собирается: её остаток до перевода строки пропускается,
+ * а вызывающий получает {@link #TOO_LONG}.
+ */
+
+final class LineReader {
+    /** Метка «строка слишком длинная» (сравнивать по ссылке). */
+    static final String TOO_LONG = new String("<line too long>");
+
+    private final Reader in;
+    private final int maxChars;
+    private final char[] buf = new char[8192];
+    private int pos = 0, len = 0;
+    private final StringBuilder sb = new StringBuilder(256);
+
+    LineReader(Reader in, int maxChars) {
+        this.in = in;
+        this.maxChars = maxChars;
+    }
+
+    /** Следующая строка без {@code \n}/{@code \r\n}, {@link #TOO_LONG} или {@code null} в конце потока. */
+    String readLine() throws IOException {
+        sb.setLength(0);
+        boolean tooLong = false;
+        while (true) {
+            if (pos == len) {
+                len = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    if (tooLong) return TOO_LONG;
+                    return sb.length() > 0 ? sb.toString() : null;
+                }
+            }
+            int start = pos;
+            while (pos < len && buf[pos] != '\n') pos++;
+            boolean eol = pos < len;
+            if (!tooLong) {
+                if (sb.length() + (pos - start) > maxChars) {
+                    tooLong = true;
+                    sb.setLength(0);
+                } else {
+                    sb.append(buf, start, pos - start);
+                }
+            }
+            if (eol) {
+                pos++;
+                if (tooLong) return TOO_LONG;
+                int n = sb.length();
+                if (n > 0 && sb.charAt(n - 1) == '\r') sb.setLength(n - 1);
+                return sb.toString();
+            }
+        }
+    }
+}
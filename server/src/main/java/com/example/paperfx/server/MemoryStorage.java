@@ -0,0 +1,144 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Messages;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Storage} в памяти процесса: те же операции, что у {@link Db}, без PostgreSQL.
+ * <p>
+ * Используется симуляцией ({@link SimMain}), бенчмарками и там, где нужен сервер без внешней БД
+ * ({@code STORAGE=memory}). Данные живут до остановки процесса; {@link FileStorage} добавляет к ним журнал на диске.
+ */
+
+class MemoryStorage implements Storage {
+    static final class User {
+        final String id;
+        final String username;
+        final String salt;
+        final String hash;
+        final long createdSeq;
+        int bestScore;
+        int gamesPlayed;
+        long kills, area;
+        int bestKillsInGame, bestKillStreak;
+        final LinkedHashSet<String> achievements = new LinkedHashSet<>();
+
+        User(String id, String username, String salt, String hash, long createdSeq) {
+            this.id = id;
+            this.username = username;
+            this.salt = salt;
+            this.hash = hash;
+            this.createdSeq = createdSeq;
+        }
+    }
+
+    private final ConcurrentHashMap<String, User> byName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, User> byId = new ConcurrentHashMap<>();
+    private final AtomicLong seq = new AtomicLong();
+
+    /** Сколько результатов игр записано (для отчёта симуляции). */
+    final AtomicLong results = new AtomicLong();
+
+    @Override
+    public void init() throws SQLException {}
+
+    @Override
+    public RegisterResult register(String username, String password) throws SQLException {
+        username = Storage.normalize(username);
+        String invalid = Storage.validateRegistration(username, password);
+        if (invalid != null) return RegisterResult.error(invalid);
+
+        String salt = PasswordUtil.newSaltBase64();
+        User u = putUser(UUID.randomUUID().toString(), username, salt, PasswordUtil.pbkdf2Base64(password, salt));
+        if (u == null) return RegisterResult.error("username already exists");
+        return RegisterResult.ok(u.id, username, 0);
+    }
+
+    /** Добавляет пользователя с готовыми солью и хэшем; {@code null}, если имя занято. */
+    User putUser(String id, String username, String salt, String hash) {
+        User u = new User(id, username, salt, hash, seq.incrementAndGet());
+        if (byName.putIfAbsent(username, u) != null) return null;
+        byId.put(u.id, u);
+        return u;
+    }
+
+    User userById(String id) {
+        return (id == null) ? null : byId.get(id);
+    }
+
+    /** Снимок всех пользователей (порядок регистрации не гарантирован). */
+    List<User> users() {
+        return new ArrayList<>(byId.values());
+    }
+
+    @Override
+    public LoginResult login(String username, String password) {
+        username = Storage.normalize(username);
+        User u = byName.get(username);
+        if (u == null) return LoginResult.error("invalid username/password");
+        String calc = PasswordUtil.pbkdf2Base64(password == null ? "" : password, u.salt);
+        if (!PasswordUtil.slowEquals(u.hash, calc)) return LoginResult.error("invalid username/password");
+        synchronized (u) { return LoginResult.ok(u.id, u.username, u.bestScore); }
+    }
+
+    @Override
+    public void recordResult(String userId, int score) throws SQLException {
+        results.incrementAndGet();
+        User u = (userId == null) ? null : byId.get(userId);
+        if (u == null) return;
+        synchronized (u) {
+            u.gamesPlayed++;
+            u.bestScore = Math.max(u.bestScore, score);
+        }
+    }
+
+    @Override
+    public List<Messages.LeaderEntry> topBest(int limit) {
+        limit = Math.max(1, Math.min(limit, 50));
+        List<User> all = new ArrayList<>(byId.values());
+        all.sort(Comparator.comparingInt((User u) -> u.bestScore).reversed().thenComparingLong(u -> u.createdSeq));
+        List<Messages.LeaderEntry> out = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, all.size()); i++) {
+            User u = all.get(i);
+            out.add(new Messages.LeaderEntry(u.username, u.bestScore));
+        }
+        return out;
+    }
+
+    @Override
+    public UserStats loadOrCreateStats(String userId) {
+        User u = byId.get(userId);
+        if (u == null) return new UserStats(0, 0, 0, 0);
+        synchronized (u) { return new UserStats(u.kills, u.area, u.bestKillsInGame, u.bestKillStreak); }
+    }
+
+    @Override
+    public void applyStats(String userId, long addKills, long addArea, int bestKillsInGameCandidate, int bestKillStreakCandidate) throws SQLException {
+        User u = byId.get(userId);
+        if (u == null) return;
+        synchronized (u) {
+            u.kills += Math.max(0, addKills);
+            u.area += Math.max(0, addArea);
+            u.bestKillsInGame = Math.max(u.bestKillsInGame, bestKillsInGameCandidate);
+            u.bestKillStreak = Math.max(u.bestKillStreak, bestKillStreakCandidate);
+        }
+    }
+
+    @Override
+    public boolean unlockAchievement(String userId, String code) throws SQLException {
+        User u = byId.get(userId);
+        if (u == null) return false;
+        synchronized (u) { return u.achievements.add(code); }
+    }
+
+    @Override
+    public List<String> listAchievementCodes(String userId) {
+        User u = byId.get(userId);
+        if (u == null) return new ArrayList<>();
+        synchronized (u) { return new ArrayList<>(u.achievements); }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Net;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Реестр метрик сервера: счётчики, гистограммы и gauge-функции с метками.
+ * <p>
+ * Запись — без блокировок ({@link LongAdder}), поэтому метрики можно обновлять из игрового цикла
+ * и потоков клиентов. Отдаются в текстовом формате Prometheus ({@link #prometheus()}, HTTP {@code /metrics})
+ * и JSON-снимком для админского сообщения {@code stats} ({@link #snapshot()}).
+ * Ряды создаются при первом обращении; метки должны быть из ограниченного набора значений.
+ */
+
+final class Metrics {
+    /** Границы гистограмм времени, секунды. */
+    static final double[] SECONDS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 1};
+    /** Границы гистограмм сетевой задержки (RTT), секунды. */
+    static final double[] RTT_SECONDS = {0.005, 0.01, 0.02, 0.03, 0.05, 0.075, 0.1, 0.15, 0.2, 0.3, 0.5, 1, 2};
+
+    static final class Counter {
+        private final LongAdder v = new LongAdder();
+
+        void inc() { v.increment(); }
+        void add(long n) { v.add(n); }
+        long get() { return v.sum(); }
+    }
+
+    static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(double v) {
+            int i = Arrays.binarySearch(bounds, v);
+            buckets[i >= 0 ? i : -i - 1].increment();
+            count.increment();
+            sum.add(v);
+        }
+
+        void observeNanos(long ns) { observe(ns / 1e9); }
+
+        long count() { return count.sum(); }
+
+        /** Оценка квантиля по бакетам: верхняя граница бакета, в котором он лежит (не больше последней границы). */
+        double quantile(double q) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long need = (long) Math.ceil(q * total), acc = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                acc += buckets[i].sum();
+                if (acc >= need) return bounds[i];
+            }
+            return bounds[bounds.length - 1];
+        }
+    }
+
+    private record Family(String help, String type, Map<String, Object> series) {}
+
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    Counter counter(String name, String help, String... labels) {
+        return (Counter) series(name, help, "counter", labels, Counter::new);
+    }
+
+    Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return (Histogram) series(name, help, "histogram", labels, () -> new Histogram(bounds));
+    }
+
+    /** Значение, которое считается в момент чтения (размеры коллекций, уже существующие счётчики). */
+    void gauge(String name, String help, DoubleSupplier fn, String... labels) {
+        series(name, help, "gauge", labels, () -> fn);
+    }
+
+    /** Как {@link #gauge}, но для монотонно растущего значения. */
+    void counterFn(String name, String help, DoubleSupplier fn, String... labels) {
+        series(name, help, "counter", labels, () -> fn);
+    }
+
+    private Object series(String name, String help, String type, String[] labels, java.util.function.Supplier<Object> make) {
+        Family f = families.computeIfAbsent(name, n -> new Family(help, type, new ConcurrentHashMap<>()));
+        return f.series.computeIfAbsent(labelKey(labels), k -> make.get());
+    }
+
+    /** Метки {@code k1, v1, k2, v2...} в виде {@code k1="v1",k2="v2"}. */
+    private static String labelKey(String[] labels) {
+        if (labels.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"")
+              .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.toString();
+    }
+
+    // ---- вывод ----
+
+    /** Текстовый формат экспозиции Prometheus 0.0.4. */
+    String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            String name = e.getKey();
+            Family f = e.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+            for (Map.Entry<String, Object> s : new TreeMap<>(f.series).entrySet()) {
+                String labels = s.getKey();
+                if (s.getValue() instanceof Histogram h) {
+                    long acc = 0;
+                    for (int i = 0; i <= h.bounds.length; i++) {
+                        acc += h.buckets[i].sum();
+                        String le = (i < h.bounds.length) ? fmt(h.bounds[i]) : "+Inf";
+                        sample(sb, name + "_bucket", join(labels, "le=\"" + le + "\""), acc);
+                    }
+                    sample(sb, name + "_sum", labels, h.sum.sum());
+                    sample(sb, name + "_count", labels, h.count.sum());
+                } else {
+                    sample(sb, name, labels, value(s.getValue()));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * JSON-снимок: {@code "имя{метки}": значение}; для гистограмм — {@code _count}, {@code _sum},
+     * {@code _p50} и {@code _p99} (оценки по бакетам).
+     */
+    ObjectNode snapshot() {
+        ObjectNode out = Net.MAPPER.createObjectNode();
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            String name = e.getKey();
+            for (Map.Entry<String, Object> s : new TreeMap<>(e.getValue().series).entrySet()) {
+                String suffix = s.getKey().isEmpty() ? "" : "{" + s.getKey() + "}";
+                if (s.getValue() instanceof Histogram h) {
+                    out.put(name + "_count" + suffix, h.count.sum());
+                    out.put(name + "_sum" + suffix, h.sum.sum());
+                    out.put(name + "_p50" + suffix, h.quantile(0.50));
+                    out.put(name + "_p99" + suffix, h.quantile(0.99));
+                } else {
+                    out.put(name + suffix, value(s.getValue()));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Поднимает HTTP-эндпоинт {@code /metrics} на JDK {@link HttpServer} (свой поток-демон).
+     * Слушает только указанный адрес — по умолчанию loopback.
+     */
+    HttpServer serve(String host, int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        http.createContext("/metrics", ex -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        http.start();
+        return http;
+    }
+
+    private static double value(Object o) {
+        if (o instanceof Counter c) return c.get();
+        if (o instanceof DoubleSupplier fn) return fn.getAsDouble();
+        return 0;
+    }
+
+    private static String join(String labels, String extra) {
+        return labels.isEmpty() ? extra : labels + "," + extra;
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double v) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(fmt(v)).append('\n');
+    }
+
+    private static String fmt(double v) {
+        if (v == Math.rint(v) && !Double.isInfinite(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+}
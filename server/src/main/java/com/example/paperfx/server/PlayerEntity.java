@@ -1,47 +1,48 @@
 package com.example.paperfx.server;
 
-import com.example.paperfx.common.Messages;
+import com.example.paperfx.common.SimPlayer;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Игровая сущность игрока внутри комнаты: позиция, ввод, след, счёт и цвет.
  * <p>
- * Создаётся на сервере при входе игроком в комнату.
+ * Создаётся на сервере при входе игроком в комнату. Игровое состояние — в {@link SimPlayer},
+ * здесь — привязка к пользователю и соединению.
  */
 
-final class PlayerEntity {
+final class PlayerEntity extends SimPlayer {
+    private static final long NO_INPUT = -1;
+
     final String userId;
-    final String username;
-    final String playerId;
-    final int idx;
-    final String color;
     final ClientConn conn;
 
-    double x, y;
-    int inputDx = 0, inputDy = 0;
-
-    int score = 0;
-    int cellX, cellY;
-    int deadCooldownTicks = 0;
-
-    final HashSet<Long> trailSet = new HashSet<>();
-    final ArrayList<Messages.Cell> trailList = new ArrayList<>();
+    /**
+     * Последний полученный, но ещё не применённый ввод (dx, dy и seq, упакованные в одно число).
+     * Потоки клиентов только перезаписывают слот, игровой цикл забирает его раз в тик:
+     * пачка input за один тик сводится к одному направлению.
+     */
+    private final AtomicLong pendingInput = new AtomicLong(NO_INPUT);
 
-    PlayerEntity(String userId, String username, String playerId, int idx, String color, ClientConn conn,
-                 double x, double y, int cellX, int cellY) {
+    PlayerEntity(String userId, String username, String playerId, int idx, String color, ClientConn conn) {
+        super(playerId, username, idx, color);
         this.userId = userId;
-        this.username = username;
-        this.playerId = playerId;
-        this.idx = idx;
-        this.color = color;
         this.conn = conn;
-        this.x = x;
-        this.y = y;
-        this.cellX = cellX;
-        this.cellY = cellY;
     }
 
-    void clearTrail() { trailSet.clear(); trailList.clear(); }
-}
\ No newline at end of file
+    /** Кладёт ввод в слот; {@code true}, если он вытеснил ещё не применённый (т.е. был схлопнут). */
+    boolean offerInput(int dx, int dy, long seq) {
+        long packed = ((seq & 0x0FFF_FFFF_FFFF_FFFFL) << 4) | ((long) (dx + 1) << 2) | (dy + 1);
+        return pendingInput.getAndSet(packed) != NO_INPUT;
+    }
+
+    /** Применяет ввод из слота к симуляции (в начале тика). {@code true}, если ввод был. */
+    boolean applyPendingInput() {
+        long v = pendingInput.getAndSet(NO_INPUT);
+        if (v == NO_INPUT) return false;
+        inputDx = (int) ((v >> 2) & 3) - 1;
+        inputDy = (int) (v & 3) - 1;
+        inputSeq = v >>> 4;
+        return true;
+    }
+}
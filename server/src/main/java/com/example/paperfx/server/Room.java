@@ -2,63 +2,129 @@ package com.example.paperfx.server;
 
 import com.example.paperfx.common.Messages;
 import com.example.paperfx.common.Net;
+import com.example.paperfx.common.OwnerGrid;
+import com.example.paperfx.common.RoomProfile;
+import com.example.paperfx.common.RoomSim;
+import com.example.paperfx.common.SimPlayer;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 /**
  * Комната (match) на сервере: игровое поле, список игроков, чат и игровой цикл комнаты.
  * <p>
  * В комнате поддерживаются игроки и наблюдатели (spectator).
+ * Сама игровая логика — детерминированная {@link RoomSim} (общая с клиентом);
+ * комната добавляет к ней вход/выход, статистику, БД и рассылку.
  */
 
-final class Room {
-    static final int CELL = 10;
-    static final int GRID_W = 80;
-    static final int GRID_H = 60;
+final class Room implements RoomSim.Events {
+    /** Раз в сколько тиков след рассылается целиком (лечит пропуски дельт). */
+    static final int TRAIL_KEYFRAME_TICKS = 100;
 
-    static final double PLAYER_SIZE = 16;
-    static final double PLAYER_SPEED = 240;
+    /** Lockstep: раз в сколько тиков в пакет входов добавляется контрольная сумма. */
+    static final int LOCKSTEP_CHECKSUM_TICKS = 20;
+    /** Lockstep: раз в сколько тиков рассылается ключевой кадр, даже если рассинхрона не было. */
+    static final int LOCKSTEP_KEYFRAME_TICKS = 200;
 
-    static final int SPAWN_R = 3;
-    static final int ROOM_CAPACITY = 4;
+    /** Комната без изменений столько своих тиков подряд засыпает (5 с при 20 Гц). */
+    static final int SLEEP_AFTER_TICKS = 100;
+    /** Спящая комната шагает раз в столько своих тиков — пока её не разбудит ввод или вход/выход участника. */
+    static final int SLEEP_STEP_TICKS = 10;
 
     static final long CHAT_COOLDOWN_MS = 5_000;
     static final int CHAT_MAX_LEN = 300;
 
     final ServerMain server;
     final String roomId;
+    /** Размер поля, вместимость и период шага комнаты (см. {@link RoomProfile}). */
+    final RoomProfile profile;
 
-    final int[] owners = new int[GRID_W * GRID_H];
+    final RoomSim sim;
+    final OwnerGrid owners;
+    /**
+     * Защищает {@link #sim}: шаг и рассылку (поток игрового цикла) от входа/выхода игроков (потоки соединений).
+     * Под ним можно брать {@code server.rooms}, но не наоборот.
+     */
+    final Object simLock = new Object();
 
     final ConcurrentHashMap<String, PlayerEntity> players = new ConcurrentHashMap<>();
     final ConcurrentHashMap<Integer, String> idxToPlayerId = new ConcurrentHashMap<>();
+    /** Авторизованные соединения в комнате — игроки и наблюдатели (ведёт {@link ServerMain#moveClient}). */
+    final Set<ClientConn> members = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Экспериментальный режим lockstep: игрокам рассылаются входы тика вместо state,
+     * клиенты считают ту же {@link RoomSim} у себя.
+     */
+    final boolean lockstep;
+
+    final SpectatorFeed spectatorFeed;
 
-    final Random rnd = new Random();
+    /**
+     * Следующая рассылка должна быть ключевой: следы целиком (state),
+     * либо полный кадр симуляции (lockstep). Например, в комнату кто-то вошёл.
+     */
+    volatile boolean keyframePending = true;
+
+    /** Тик комнаты (только игровой цикл): растёт раз в период профиля, идёт в {@code state.tick}. */
+    long tick = 0;
+
+    // Спячка (только игровой цикл): версия симуляции после прошлого шага и сколько шагов подряд она не менялась.
+    private long stepVersion = -1;
+    private int unchangedSteps = 0;
+    private volatile boolean asleep = false;
+    private volatile boolean wakeRequested = false;
+    /** Шагала ли комната в текущем тике (спящая — не каждый тик); без шага нечего и рассылать. */
+    private boolean steppedThisTick = true;
+
+    // Рассылка (только игровой цикл): версия и тик последнего закодированного state, тик последней строки игрокам.
+    private long sentVersion = -1;
+    private long sentStateTick = -1;
+    private long lastLineTick = -1;
+    // Текущая рассылка (только игровой цикл): байт поставлено в очереди (UTF-8, с переводами строк) и получателей.
+    private long sentBytes;
+    private int sentRecipients;
 
     Room(ServerMain server, String roomId) {
+        this(server, roomId, false);
+    }
+
+    Room(ServerMain server, String roomId, boolean lockstep) {
+        this(server, roomId, lockstep, RoomProfile.CLASSIC);
+    }
+
+    Room(ServerMain server, String roomId, boolean lockstep, RoomProfile profile) {
         this.server = server;
         this.roomId = roomId;
+        this.lockstep = lockstep;
+        this.profile = profile;
+        this.sim = new RoomSim(ThreadLocalRandom.current().nextLong(), profile);
+        this.owners = sim.owners;
+        this.spectatorFeed = new SpectatorFeed(profile.tickMs());
+        sim.setEvents(this);
     }
 
-    int toIndex(int x, int y) { return y * GRID_W + x; }
+    int capacity() { return profile.capacity(); }
 
-    int countTerritoryCells(int idx) {
-        int n = 0;
-        for (int o : owners) if (o == idx) n++;
-        return n;
-    }
+    /** Годится ли комната для автораспределения при входе: только обычные комнаты (classic, без lockstep). */
+    boolean autoJoinable() { return profile == RoomProfile.CLASSIC && !lockstep; }
+
+    int toIndex(int x, int y) { return sim.toIndex(x, y); }
+
+    int countTerritoryCells(int idx) { return sim.countTerritoryCells(idx); }
 
     /**
-     * Выделяет компактный индекс игрока в диапазоне [1..ROOM_CAPACITY], который сейчас свободен.
+     * Выделяет компактный индекс игрока в диапазоне [1..capacity()], который сейчас свободен.
      * <p>
      * Возвращает -1, если свободных индексов нет.
      */
     int allocIdx() {
-        for (int i = 1; i <= ROOM_CAPACITY; i++) if (!idxToPlayerId.containsKey(i)) return i;
-        return -1;
+        return sim.allocIdx();
     }
 
     /**
@@ -68,15 +134,6 @@ final class Room {
         return allocIdx();
     }
 
-    void giveInitialTerritory(int idx, int cx, int cy) {
-        for (int y = cy - SPAWN_R; y <= cy + SPAWN_R; y++) {
-            for (int x = cx - SPAWN_R; x <= cx + SPAWN_R; x++) {
-                if (x < 0 || y < 0 || x >= GRID_W || y >= GRID_H) continue;
-                owners[toIndex(x, y)] = idx;
-            }
-        }
-    }
-
     void join(ClientConn c, boolean spectator) {
         Room old = (c.roomId != null) ? server.rooms.get(c.roomId) : null;
 
@@ -91,12 +148,13 @@ final class Room {
             c.playerId = null;
             c.roomId = roomId;
             c.spectator = true;
+            server.moveClient(c, this);
             sendRoomJoined(c, true, null);
             return;
         }
 
         // Вход игроком: не покидаем текущую комнату, если целевая переполнена.
-        if (players.size() >= ROOM_CAPACITY && (old == null || old != this)) {
+        if (players.size() >= capacity() && (old == null || old != this)) {
             c.sendJson(ServerMain.error("room_full"));
             return;
         }
@@ -108,50 +166,80 @@ final class Room {
         server.resetSession(c);
 
         String pid = UUID.randomUUID().toString();
-        int idx = nextIdx();
-        if (idx < 0) { // Редко, но на всякий случай обрабатываем гонку/рассинхрон.
-            c.sendJson(ServerMain.error("room_full"));
-            return;
-        }
+        synchronized (simLock) { // индекс свободен, пока игрок не добавлен в симуляцию
+            int idx = nextIdx();
+            if (idx < 0) { // Редко, но на всякий случай обрабатываем гонку/рассинхрон.
+                c.sendJson(ServerMain.error("room_full"));
+                return;
+            }
 
-        int sx = rnd.nextInt(GRID_W);
-        int sy = rnd.nextInt(GRID_H);
+            String color = ServerMain.pickColor(roomId, c.username);
 
-        double px = sx * CELL + (CELL - PLAYER_SIZE) / 2.0;
-        double py = sy * CELL + (CELL - PLAYER_SIZE) / 2.0;
+            PlayerEntity p = new PlayerEntity(c.userId, c.username, pid, idx, color, c);
 
-        String color = ServerMain.pickColor(roomId, c.username);
+            c.playerId = pid;
+            c.roomId = roomId;
+            c.spectator = false;
+            server.moveClient(c, this);
 
-        PlayerEntity p = new PlayerEntity(c.userId, c.username, pid, idx, color, c, px, py, sx, sy);
-        players.put(pid, p);
-        idxToPlayerId.put(idx, pid);
+            addEntity(p);
+        }
 
-        c.playerId = pid;
-        c.roomId = roomId;
-        c.spectator = false;
+        sendRoomJoined(c, false, pid);
+    }
 
-        giveInitialTerritory(idx, sx, sy);
+    /** Регистрирует сущность игрока в комнате и ставит её на поле (индекс {@code p.idx} уже выделен). */
+    void addEntity(PlayerEntity p) {
+        players.put(p.playerId, p);
+        idxToPlayerId.put(p.idx, p.playerId);
+        synchronized (simLock) {
+            sim.addPlayer(p);
+            // Новый игрок ещё не видел следов (или кадра симуляции) — ближайшая рассылка будет ключевой. Под тем же
+            // замком, что и вход в симуляцию: иначе между ними может уйти дельта, к которой у него нет базы.
+            keyframePending = true;
+        }
+        wake();
+        indexFreeSlots();
+    }
 
-        sendRoomJoined(c, false, pid);
+    /** Обновляет число свободных мест в {@link ServerMain#freeSlots} (только для комнаты, которая есть на сервере). */
+    private void indexFreeSlots() {
+        synchronized (server.rooms) { // согласованно с удалением комнаты в ServerMain.moveClient
+            if (server.rooms.get(roomId) == this) server.freeSlots.update(this);
+        }
     }
 
     void sendRoomJoined(ClientConn c, boolean spectator, String pid) {
+        // Ключевую рассылку для нового игрока заказывает addEntity; наблюдатели получают кадры целиком (SpectatorFeed).
+        wake();
+
         ObjectNode msg = Net.MAPPER.createObjectNode();
         msg.put("type", "room_joined");
         msg.put("roomId", roomId);
-        msg.put("capacity", ROOM_CAPACITY);
+        msg.put("capacity", capacity());
+        msg.put("profile", profile.name());
+        msg.put("tickMs", profile.tickMs());
+        msg.put("gridW", profile.gridW());
+        msg.put("gridH", profile.gridH());
+        msg.put("cellSize", profile.cell());
         msg.put("spectator", spectator);
+        if (lockstep) msg.put("lockstep", true);
         if (pid != null) msg.put("playerId", pid);
         msg.put("players", players.size());
         c.sendJson(msg);
     }
 
+    /** Клиент lockstep разошёлся с сервером — следующей рассылкой пойдёт ключевой кадр. */
+    void requestKeyframe() {
+        if (lockstep) keyframePending = true;
+    }
+
     void removePlayer(String playerId, boolean keepTerritory) {
         if (playerId == null) return;
         PlayerEntity p = players.remove(playerId);
         if (p == null) return;
         idxToPlayerId.remove(p.idx);
-        p.clearTrail();
+        indexFreeSlots();
 
         // Сохраняем результат игры (лучший счёт / топ) и записываем накопленную статистику.
         try { server.db.recordResult(p.userId, p.score); }
@@ -164,85 +252,120 @@ final class Room {
             server.resetSession(p.conn);
         }
 
-        if (!keepTerritory) {
-            for (int i = 0; i < owners.length; i++) if (owners[i] == p.idx) owners[i] = 0;
-        }
+        synchronized (simLock) { sim.removePlayer(p.idx, keepTerritory); }
+        if (lockstep) keyframePending = true;
+        wake();
     }
 
-    void killAndRespawn(PlayerEntity victim, String reason) {
-        try { server.db.recordResult(victim.userId, victim.score); }
-        catch (SQLException e) { System.err.println("[server] recordResult error: " + e.getMessage()); }
-
-        for (int i = 0; i < owners.length; i++) if (owners[i] == victim.idx) owners[i] = 0;
-        victim.clearTrail();
-
-        int sx = rnd.nextInt(GRID_W);
-        int sy = rnd.nextInt(GRID_H);
+    /** Будит спящую комнату: со следующего тика она снова шагает каждый тик. */
+    void wake() {
+        if (asleep) wakeRequested = true;
+    }
 
-        victim.x = sx * CELL + (CELL - PLAYER_SIZE) / 2.0;
-        victim.y = sy * CELL + (CELL - PLAYER_SIZE) / 2.0;
-        victim.cellX = sx;
-        victim.cellY = sy;
+    boolean asleep() { return asleep; }
 
-        giveInitialTerritory(victim.idx, sx, sy);
-        victim.deadCooldownTicks = 10;
+    /**
+     * Следующий тик комнаты (игровой цикл вызывает раз в период профиля): продвигает {@link #tick} и отвечает,
+     * шагать ли комнату. Комната, в которой {@link #SLEEP_AFTER_TICKS} шагов ничего не менялось (все стоят,
+     * никого нет или одни наблюдатели), засыпает и шагает раз в {@link #SLEEP_STEP_TICKS} тиков; ввод со сменой
+     * направления или вход/выход будит её сразу.
+     */
+    boolean nextTick() {
+        tick++;
+        if (wakeRequested) {
+            wakeRequested = false;
+            asleep = false;
+            unchangedSteps = 0;
+        }
+        steppedThisTick = !asleep || tick % SLEEP_STEP_TICKS == 0;
+        return steppedThisTick;
+    }
 
-        System.out.println("[server][" + roomId + "] " + victim.username + " died: " + reason);
+    /**
+     * Шаг комнаты. Шаг симуляции фиксированный (период профиля), без wall-clock dt,
+     * чтобы клиенты lockstep получали тот же результат. Перед шагом каждому игроку применяется
+     * последний пришедший за тик input (см. {@link PlayerEntity#offerInput}).
+     */
+    void step() {
+        ServerEvents.RoomStep ev = new ServerEvents.RoomStep();
+        ev.begin();
+        synchronized (simLock) {
+            for (PlayerEntity p : players.values()) p.applyPendingInput();
+            sim.step();
+            if (sim.version != stepVersion) {
+                stepVersion = sim.version;
+                unchangedSteps = 0;
+            } else if (!lockstep && ++unchangedSteps >= SLEEP_AFTER_TICKS && !asleep) {
+                asleep = true;
+            }
+        }
+        ev.end();
+        if (ev.shouldCommit()) {
+            ev.roomId = roomId;
+            ev.players = players.size();
+            ev.commit();
+        }
     }
 
-    void step(double dt) {
-        for (PlayerEntity p : players.values()) {
-            if (p.deadCooldownTicks > 0) { p.deadCooldownTicks--; continue; }
+    // ---- события симуляции ----
 
-            int oldCx = p.cellX;
-            int oldCy = p.cellY;
+    @Override
+    public void onDeath(SimPlayer victim, String reason) {
+        PlayerEntity p = (PlayerEntity) victim;
+        try { server.db.recordResult(p.userId, p.score); }
+        catch (SQLException e) { System.err.println("[server] recordResult error: " + e.getMessage()); }
 
-            p.x = ServerMain.clamp(p.x + (p.inputDx * PLAYER_SPEED) * dt, 0, GRID_W * (double) CELL - PLAYER_SIZE);
-            p.y = ServerMain.clamp(p.y + (p.inputDy * PLAYER_SPEED) * dt, 0, GRID_H * (double) CELL - PLAYER_SIZE);
+        System.out.println("[server][" + roomId + "] " + p.username + " died: " + reason);
+    }
 
-            int newCx = ServerMain.clampInt((int) Math.floor((p.x + PLAYER_SIZE / 2.0) / CELL), 0, GRID_W - 1);
-            int newCy = ServerMain.clampInt((int) Math.floor((p.y + PLAYER_SIZE / 2.0) / CELL), 0, GRID_H - 1);
+    @Override
+    public void onKill(SimPlayer killer, SimPlayer victim) {
+        recordKill((PlayerEntity) killer, (PlayerEntity) victim);
+    }
 
-            if (newCx != oldCx || newCy != oldCy) {
-                for (int[] c : ServerMain.bresenham(oldCx, oldCy, newCx, newCy)) {
-                    if (c[0] == oldCx && c[1] == oldCy) continue;
-                    p.cellX = c[0];
-                    p.cellY = c[1];
-                    onEnterCell(p, c[0], c[1]);
-                }
-            }
+    @Override
+    public void onCapture(SimPlayer player, long gained) {
+        PlayerEntity p = (PlayerEntity) player;
+        if (p.conn == null) return;
+        p.conn.pendingArea += gained;
+        p.conn.statsDirty = true;
+        // Достижения могут зависеть от общей захваченной площади.
+        server.checkAndUnlockAchievements(p.conn, this);
+    }
 
-            p.score = countTerritoryCells(p.idx);
-            if (p.conn != null) {
-                if (p.score > p.conn.sessionMaxScore) {
-                    p.conn.sessionMaxScore = p.score;
-                    if (p.score > p.conn.bestScore) p.conn.bestScore = p.score;
-                    server.checkAndUnlockAchievements(p.conn, this);
-                }
-            }
-        }
+    /** Событие JFR текущего захвата (захваты идут по одному внутри шага комнаты). */
+    private ServerEvents.Capture captureEvent;
+
+    @Override
+    public void onCaptureStart(SimPlayer player) {
+        ServerEvents.Capture ev = new ServerEvents.Capture();
+        ev.trailCells = player.trailCells;
+        ev.begin();
+        captureEvent = ev;
     }
 
-    private void onEnterCell(PlayerEntity mover, int x, int y) {
-        // Если игрок наступает на чужой след — умирает ТОТ, чей след.
-        for (PlayerEntity other : players.values()) {
-            if (other.idx == mover.idx) continue;
-            if (other.deadCooldownTicks > 0) continue;
-            if (other.trailSet.contains(ServerMain.key(x, y))) {
-                recordKill(mover, other);
-                killAndRespawn(other, "trail intersected by " + mover.username);
-            }
+    @Override
+    public void onCaptureEnd(SimPlayer player, long gained) {
+        ServerEvents.Capture ev = captureEvent;
+        captureEvent = null;
+        if (ev == null) return;
+        ev.end();
+        if (ev.shouldCommit()) {
+            ev.roomId = roomId;
+            ev.username = player.username;
+            ev.gained = gained;
+            ev.commit();
         }
+    }
 
-        int idx = mover.idx;
-        boolean inOwnTerritory = owners[toIndex(x, y)] == idx;
-
-        if (!inOwnTerritory) {
-            // Вне своей территории: продолжаем след. Захват возможен ТОЛЬКО при возврате на свою территорию.
-            addTrail(mover, x, y);
-        } else {
-            // Возврат на свою территорию замыкает контур и захватывает область внутри.
-            if (!mover.trailList.isEmpty()) captureLoopOverwrite(mover);
+    @Override
+    public void onScore(SimPlayer player) {
+        PlayerEntity p = (PlayerEntity) player;
+        if (p.conn == null) return;
+        if (p.score > p.conn.sessionMaxScore) {
+            p.conn.sessionMaxScore = p.score;
+            if (p.score > p.conn.bestScore) p.conn.bestScore = p.score;
+            server.checkAndUnlockAchievements(p.conn, this);
         }
     }
 
@@ -263,100 +386,169 @@ final class Room {
         server.checkAndUnlockAchievements(c, this);
     }
 
-    private void addTrail(PlayerEntity p, int x, int y) {
-        long k = ServerMain.key(x, y);
-        if (p.trailSet.add(k)) p.trailList.add(new Messages.Cell(x, y));
-    }
+    // ---- рассылка ----
 
-    /**
-     * Захват замкнутой области через flood-fill от границ.
-     * <p>
-     * «Стены» — территория игрока + его след.
-     * Всё, что недостижимо снаружи, считается «внутри» и становится территорией игрока.
-     * Владельцы перезаписываются (клетки «переходят» захватившему).
-     * Сам след также превращается в территорию (включая линии толщиной 1 клетку).
-     */
-    private void captureLoopOverwrite(PlayerEntity p) {
-        int idx = p.idx;
-        if (p.trailList.isEmpty()) return;
+    void broadcastState(long tick) {
+        if (!steppedThisTick) return;
+        // Кадр кодируется из симуляции (в том числе лениво — для отставших и наблюдателей), а дельта
+        // территории и следов сбрасывается после него: вход/выход игрока не должен вклиниться между ними.
+        synchronized (simLock) { broadcastStateLocked(tick); }
+    }
 
-        boolean[] blocked = new boolean[owners.length];
-        for (int i = 0; i < owners.length; i++) if (owners[i] == idx) blocked[i] = true;
-        for (Messages.Cell c : p.trailList) blocked[toIndex(c.x, c.y)] = true;
+    private void broadcastStateLocked(long tick) {
+        ServerEvents.Broadcast ev = new ServerEvents.Broadcast();
+        ev.begin();
+        sentBytes = 0;
+        sentRecipients = 0;
+
+        boolean pending = keyframePending;
+        if (!lockstep && !pending && sim.version == sentVersion) {
+            // Ничего не изменилось: вместо state игрокам — короткий «state не изменился» (наблюдателям — ничего).
+            // Только тем, у кого последний state комнаты; отставшие получают дельту до него (или кадр целиком).
+            String[] full = { null };
+            sendState(tick, sentStateTick, sentStateTick, sameLine(tick), null,
+                    () -> full[0] != null ? full[0] : (full[0] = encodeState(tick, true)));
+            server.statesUnchanged.inc();
+            lastLineTick = tick;
+            commitBroadcast(ev, false);
+            return;
+        }
 
-        boolean[] outside = new boolean[owners.length];
-        ArrayDeque<Integer> q = new ArrayDeque<>();
+        keyframePending = false;
 
-        for (int x = 0; x < GRID_W; x++) {
-            pushIfOpen(q, outside, blocked, toIndex(x, 0));
-            pushIfOpen(q, outside, blocked, toIndex(x, GRID_H - 1));
-        }
-        for (int y = 0; y < GRID_H; y++) {
-            pushIfOpen(q, outside, blocked, toIndex(0, y));
-            pushIfOpen(q, outside, blocked, toIndex(GRID_W - 1, y));
+        String line;
+        boolean keyframe;
+        if (lockstep) {
+            keyframe = pending || sim.tick % LOCKSTEP_KEYFRAME_TICKS == 0;
+            line = encodeLockstep(keyframe);
+        } else {
+            keyframe = pending || tick % TRAIL_KEYFRAME_TICKS == 0;
+            line = encodeState(tick, keyframe);
+            sim.markTrailsSent(tick);
         }
-
-        while (!q.isEmpty()) {
-            int cur = q.removeFirst();
-            int cx = cur % GRID_W;
-            int cy = cur / GRID_W;
-            if (cx > 0) pushIfOpen(q, outside, blocked, cur - 1);
-            if (cx + 1 < GRID_W) pushIfOpen(q, outside, blocked, cur + 1);
-            if (cy > 0) pushIfOpen(q, outside, blocked, cur - GRID_W);
-            if (cy + 1 < GRID_H) pushIfOpen(q, outside, blocked, cur + GRID_W);
+        if (line == null) return;
+
+        long prevStateTick = sentStateTick;
+        String wakeLine = null;
+        if (!lockstep) {
+            // После спячки: state не менялся до прошлого тика — говорим об этом, чтобы клиент не растянул
+            // интерполяцию движения на всю паузу.
+            if (lastLineTick >= 0 && lastLineTick < tick - 1) wakeLine = sameLine(tick - 1);
+            sentVersion = sim.version;
+            sentStateTick = tick;
+            lastLineTick = tick;
         }
 
-        long gained = 0;
+        // Игроки получают каждый тик (медленные клиенты — реже, см. SendRate); наблюдатели — общий кадр комнаты
+        // в своём (реже) темпе. Полный кадр кодируется не больше одного раза за тик и только если он кому-то нужен.
+        String[] full = { keyframe && !lockstep ? line : null };
+        Supplier<String> fullLine = () -> full[0] != null ? full[0] : (full[0] = encodeState(tick, true));
+        int spectators = lockstep ? sendToPlayers(line)
+                : sendState(tick, tick, keyframe || prevStateTick < 0 ? -1 : prevStateTick, line, wakeLine, fullLine);
+        String specLine = spectatorFeed.offer(tick, spectators > 0, fullLine);
+        if (specLine != null) sendToSpectators(specLine);
+        commitBroadcast(ev, keyframe);
+    }
 
-        for (int i = 0; i < owners.length; i++) {
-            if (blocked[i] || outside[i]) continue;
-            if (owners[i] != idx) gained++;
-            owners[i] = idx;
-        }
+    private void commitBroadcast(ServerEvents.Broadcast ev, boolean keyframe) {
+        ev.end();
+        if (!ev.shouldCommit()) return;
+        ev.roomId = roomId;
+        ev.bytes = sentBytes;
+        ev.recipients = sentRecipients;
+        ev.keyframe = keyframe;
+        ev.commit();
+    }
 
-        for (Messages.Cell c : p.trailList) {
-            int ti = toIndex(c.x, c.y);
-            if (owners[ti] != idx) gained++;
-            owners[ti] = idx;
-        }
+    /** Учитывает строку, поставленную в очереди {@code copies} получателям: метрики сервера и объём рассылки. */
+    private void counted(String line, int copies) {
+        sentBytes += server.countOut(line, copies);
+    }
 
-        if (gained > 0 && p.conn != null) {
-            p.conn.pendingArea += gained;
-            p.conn.statsDirty = true;
-            // Достижения могут зависеть от общей захваченной площади.
-            server.checkAndUnlockAchievements(p.conn, this);
+    /** Строка каждому игроку без пропусков (входы lockstep пропускать нельзя). Возвращает число наблюдателей. */
+    private int sendToPlayers(String line) {
+        int spectators = 0, n = 0;
+        for (ClientConn c : members) {
+            if (c.spectator) spectators++;
+            else if (c.enqueue(line)) n++;
         }
-
-        p.clearTrail();
+        counted(line, n);
+        sentRecipients += n;
+        return spectators;
     }
 
-    private static void pushIfOpen(ArrayDeque<Integer> q, boolean[] outside, boolean[] blocked, int i) {
-        if (blocked[i] || outside[i]) return;
-        outside[i] = true;
-        q.addLast(i);
+    private void sendToSpectators(String line) {
+        int n = 0;
+        for (ClientConn c : members) if (c.spectator && c.enqueue(line)) n++;
+        counted(line, n);
+        sentRecipients += n;
     }
 
-    void broadcastState(long tick) {
-        int[] ownersSnap = Arrays.copyOf(owners, owners.length);
-
-        List<Messages.Player> ps = new ArrayList<>();
-        for (PlayerEntity p : players.values()) {
-            List<Messages.Cell> trail = p.trailList.isEmpty() ? null : new ArrayList<>(p.trailList);
-            ps.add(new Messages.Player(p.playerId, p.idx, p.username, p.x, p.y, p.score, p.color, trail));
+    /**
+     * Рассылает state тика {@code tick} игрокам с адаптивной частотой ({@link SendRate}). Кто получил state тика
+     * {@code prevTick} ({@code -1} — {@code line} годится всем, это ключевой кадр), получает {@code line}
+     * (перед ней — {@code preLine}, если задана). Кто пропустил тики, получает дельту от своего последнего state
+     * ({@link RoomSim#buildStateSince}) — одну строку на всех с той же базой; {@code fullLine} — только если базы нет
+     * (вошёл в комнату, база старше журнала). После отправки у клиента state тика {@code stateTick} — последней
+     * рассылки с изменениями. Возвращает число наблюдателей в комнате.
+     */
+    private int sendState(long tick, long stateTick, long prevTick, String line, String preLine, Supplier<String> fullLine) {
+        int spectators = 0;
+        HashMap<Long, String> sinceLines = null;
+        IdentityHashMap<String, int[]> copies = new IdentityHashMap<>();
+        for (ClientConn c : members) {
+            if (c.spectator) { spectators++; continue; }
+            if (!c.sendRate.due(tick, c.outbox.size(), c.rtt)) { server.statesSkipped.inc(); continue; }
+            int epoch = c.roomEpoch;
+            long base = c.sendRate.baseTick(epoch);
+            String out;
+            if (prevTick < 0 || base == prevTick) {
+                out = line;
+                if (preLine != null && c.enqueue(preLine)) copies.computeIfAbsent(preLine, k -> new int[1])[0]++;
+            } else {
+                if (sinceLines == null) sinceLines = new HashMap<>();
+                out = sinceLines.computeIfAbsent(base, b -> b < 0 ? "" : encodeSince(tick, b));
+                if (out.isEmpty()) out = fullLine.get();
+            }
+            if (out == null || !c.enqueue(out)) continue;
+            c.sendRate.sent(tick, epoch, stateTick);
+            copies.computeIfAbsent(out, k -> new int[1])[0]++;
+            sentRecipients++;
         }
-        ps.sort(Comparator.comparingInt((Messages.Player pl) -> pl.score).reversed());
+        for (Map.Entry<String, int[]> e : copies.entrySet()) counted(e.getKey(), e.getValue()[0]);
+        return spectators;
+    }
 
-        // Лидерборд по комнате
-        List<Messages.LeaderEntry> lb = new ArrayList<>();
-        for (Messages.Player pl : ps) lb.add(new Messages.LeaderEntry(pl.username, pl.score));
+    /** State без изменений с прошлого: клиент повторяет у себя последний state с новым {@code tick}. */
+    private static String sameLine(long tick) {
+        return "{\"type\":\"state\",\"tick\":" + tick + ",\"same\":true}";
+    }
 
-        Messages.State state = new Messages.State(tick, roomId, CELL, GRID_W, GRID_H, ownersSnap, ps, lb);
+    /** Дельта state от рассылки тика {@code sinceTick} ({@link RoomSim#buildStateSince}); {@code ""} — её нет в журнале. */
+    private String encodeSince(long tick, long sinceTick) {
+        try {
+            Messages.State st = sim.buildStateSince(tick, roomId, sinceTick);
+            return (st == null) ? "" : Net.toJson(st);
+        } catch (Exception e) {
+            return "";
+        }
+    }
 
-        String line;
-        try { line = Net.toJson(state); }
-        catch (Exception e) { return; }
+    /** Кодирует state комнаты в строку JSON (см. {@link RoomSim#buildState}). */
+    private String encodeState(long tick, boolean fullTrails) {
+        try { return Net.toJson(sim.buildState(tick, roomId, fullTrails)); }
+        catch (Exception e) { return null; }
+    }
 
-        server.broadcastToRoom(roomId, line);
+    /** Lockstep: ключевой кадр симуляции либо входы последнего тика (с контрольной суммой раз в N тиков). */
+    private String encodeLockstep(boolean keyframe) {
+        try {
+            if (keyframe) return Net.toJson(sim.toKeyframe(roomId));
+            Long sum = (sim.tick % LOCKSTEP_CHECKSUM_TICKS == 0) ? sim.checksum() : null;
+            return Net.toJson(new Messages.Inputs(sim.tick, sim.lastInputs(), sum));
+        } catch (Exception e) {
+            return null;
+        }
     }
 
     void chatSend(ClientConn from, String text) {
@@ -394,4 +586,4 @@ final class Room {
 
         server.broadcastJsonToRoom(roomId, msg);
     }
-}
\ No newline at end of file
+}
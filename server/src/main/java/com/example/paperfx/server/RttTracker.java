@@ -0,0 +1,63 @@
+package com.example.paperfx.server;
+
+/**
+ * Оценка задержки одного клиента по ping/pong, инициируемым сервером.
+ * <p>
+ * Сервер раз в секунду шлёт {@code ping} со своим {@code System.nanoTime()} и wall-clock; клиент сразу отвечает
+ * {@code pong} с теми же значениями и своим wall-clock. RTT включает ожидание в очереди отправки соединения —
+ * это та задержка, которую реально видит игрок. Сглаживание — как SRTT/RTTVAR в TCP (RFC 6298).
+ * Смещение часов клиента относительно сервера: {@code ct - (st + rtt/2)}.
+ */
+
+final class RttTracker {
+    /** Ответы старше этого не учитываем (потерянный/подделанный pong). */
+    private static final long MAX_RTT_NS = 30_000_000_000L;
+    private static final double ALPHA = 1.0 / 8, BETA = 1.0 / 4;
+
+    final Metrics.Histogram histogram = new Metrics.Histogram(Metrics.RTT_SECONDS);
+
+    private volatile double srttMs = 0;
+    private volatile double rttVarMs = 0;
+    private volatile double lastMs = 0;
+    private volatile double offsetMs = 0;
+    private volatile long samples = 0;
+
+    /**
+     * Учитывает pong. {@code sentNs}/{@code sentMs} — эхо из ping, {@code clientMs} — часы клиента при получении ping
+     * (или {@code -1}). Возвращает RTT в мс либо {@code -1}, если ответ не подходит.
+     */
+    synchronized double onPong(long sentNs, long sentMs, long clientMs, long nowNs) {
+        long rttNs = nowNs - sentNs;
+        if (rttNs < 0 || rttNs > MAX_RTT_NS) return -1;
+        double rtt = rttNs / 1e6;
+
+        if (samples == 0) {
+            srttMs = rtt;
+            rttVarMs = rtt / 2;
+        } else {
+            rttVarMs = (1 - BETA) * rttVarMs + BETA * Math.abs(srttMs - rtt);
+            srttMs = (1 - ALPHA) * srttMs + ALPHA * rtt;
+        }
+        if (clientMs > 0 && sentMs > 0) {
+            double off = clientMs - (sentMs + rtt / 2);
+            offsetMs = (samples == 0) ? off : (1 - ALPHA) * offsetMs + ALPHA * off;
+        }
+        lastMs = rtt;
+        samples++;
+        histogram.observe(rtt / 1e3);
+        return rtt;
+    }
+
+    /** Сглаженный RTT, мс ({@code 0}, пока не было ни одного ответа). */
+    double rttMs() { return srttMs; }
+
+    /** Разброс RTT (RTTVAR), мс. */
+    double rttVarMs() { return rttVarMs; }
+
+    double lastRttMs() { return lastMs; }
+
+    /** На сколько мс часы клиента впереди часов сервера (может быть отрицательным). */
+    double clockOffsetMs() { return offsetMs; }
+
+    long samples() { return samples; }
+}
@@ -0,0 +1,85 @@
+package com.example.paperfx.server;
+
+/**
+ * Адаптивная частота рассылки state одному клиенту: каждый тик, через тик или раз в 4 тика.
+ * <p>
+ * Решение принимается по очереди отправки соединения ({@link ClientConn#outbox}) и RTT ({@link RttTracker}).
+ * Если очередь растёт или RTT большой, частота сразу снижается вдвое; повышается обратно — только после
+ * {@link #RECOVER_TICKS} тиков без очереди и с нормальным RTT. Пропуск тика не теряет данных:
+ * в очередной отправке клиент получает самый свежий state, а после пропуска — дельту от последнего полученного
+ * (см. {@link #baseTick}); целиком — только если базы нет (новый участник комнаты или база старше журнала дельт).
+ */
+
+final class SendRate {
+    static final int MAX_EVERY = 4;
+    /** Очередь больше этого — клиент не успевает принимать state. */
+    static final int BACKLOG_HIGH = 4;
+    static final double RTT_HIGH_MS = Double.parseDouble(ServerMain.envOr("SEND_RATE_RTT_HIGH_MS", "250"));
+    static final double RTT_OK_MS = RTT_HIGH_MS * 0.6;
+    /** Сколько тиков подряд клиент должен быть «здоров», чтобы частота выросла вдвое (2 с). */
+    static final int RECOVER_TICKS = 40;
+    /** После снижения частоты следующее снижение не раньше чем через столько тиков (очередь успевает разойтись). */
+    static final int HOLD_TICKS = 10;
+
+    private int every = 1;
+    private int healthyTicks = 0;
+    private long changedAtTick = Long.MIN_VALUE / 2;
+    private long lastSentTick = Long.MIN_VALUE / 2;
+    /** Последний полученный клиентом state: тик комнаты и номер пребывания в ней ({@link ClientConn#roomEpoch}). */
+    private long baseTick = -1;
+    private int baseEpoch = -1;
+
+    /**
+     * Вызывается каждый тик рассылки комнаты (из игрового цикла; тики — комнаты, а не сервера). Возвращает {@code true}, если в этот тик
+     * клиенту нужно отправить state. Плохим RTT считается, когда высоки и сглаженная оценка, и последний замер;
+     * для восстановления достаточно хорошего последнего замера (сглаженная оценка догоняет медленно).
+     */
+    boolean due(long tick, int backlog, RttTracker rtt) {
+        if (tick <= lastSentTick) {
+            // Клиент перешёл в другую комнату: у каждой комнаты свой счёт тиков.
+            lastSentTick = Long.MIN_VALUE / 2;
+            changedAtTick = Long.MIN_VALUE / 2;
+        }
+        boolean struggling = backlog > BACKLOG_HIGH || (rtt.rttMs() > RTT_HIGH_MS && rtt.lastRttMs() > RTT_HIGH_MS);
+        boolean healthy = backlog == 0 && rtt.lastRttMs() <= RTT_OK_MS;
+
+        if (struggling) {
+            healthyTicks = 0;
+            if (every < MAX_EVERY && tick - changedAtTick >= HOLD_TICKS) {
+                every *= 2;
+                changedAtTick = tick;
+            }
+        } else if (healthy) {
+            if (++healthyTicks >= RECOVER_TICKS && every > 1) {
+                every /= 2;
+                changedAtTick = tick;
+                healthyTicks = 0;
+            }
+        } else {
+            healthyTicks = 0;
+        }
+
+        return tick - lastSentTick >= every;
+    }
+
+    /**
+     * Отмечает отправку в тик {@code tick}: после неё у клиента state комнаты на тик {@code stateTick}
+     * (при пребывании {@code epoch}).
+     */
+    void sent(long tick, int epoch, long stateTick) {
+        lastSentTick = tick;
+        baseEpoch = epoch;
+        baseTick = stateTick;
+    }
+
+    /**
+     * Тик последнего полученного клиентом state комнаты — база для дельты; {@code -1}, если клиент с тех пор
+     * сменил комнату ({@code epoch}) или ещё ничего не получал.
+     */
+    long baseTick(int epoch) {
+        return (epoch == baseEpoch) ? baseTick : -1;
+    }
+
+    /** Текущий интервал рассылки в тиках (1, 2 или 4). */
+    int every() { return every; }
+}
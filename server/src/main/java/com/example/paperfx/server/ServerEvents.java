@@ -0,0 +1,70 @@
+package com.example.paperfx.server;
+
+import jdk.jfr.*;
+
+/**
+ * События JDK Flight Recorder сервера: тик, шаг комнаты, захват, рассылка state и вызовы хранилища.
+ * <p>
+ * Позволяют по записи JFR понять, на что ушёл всплеск тика. Пороги и частоты для постоянной записи
+ * заданы в {@code paperfx.jfc} (лежит в дистрибутиве сервера, см. DEV_GUIDE). Стек не пишется —
+ * события дешёвые, а при выключенной записи JIT убирает их почти полностью.
+ */
+
+final class ServerEvents {
+    private ServerEvents() {}
+
+    @Name("paperfx.Tick")
+    @Label("Game Tick")
+    @Category({"PaperFX", "Game Loop"})
+    @Description("Один тик игрового цикла: шаг и рассылка всех комнат")
+    @StackTrace(false)
+    static final class Tick extends Event {
+        @Label("Tick") long tick;
+        @Label("Rooms") int rooms;
+    }
+
+    @Name("paperfx.RoomStep")
+    @Label("Room Step")
+    @Category({"PaperFX", "Game Loop"})
+    @Description("Room.step: ввод игроков и шаг симуляции комнаты")
+    @StackTrace(false)
+    static final class RoomStep extends Event {
+        @Label("Room") String roomId;
+        @Label("Players") int players;
+    }
+
+    @Name("paperfx.Capture")
+    @Label("Capture")
+    @Category({"PaperFX", "Game Loop"})
+    @Description("Захват области при замыкании следа (flood-fill по полю)")
+    @StackTrace(false)
+    static final class Capture extends Event {
+        @Label("Room") String roomId;
+        @Label("Player") String username;
+        @Label("Trail Cells") int trailCells;
+        @Label("Cells Gained") long gained;
+    }
+
+    @Name("paperfx.Broadcast")
+    @Label("Broadcast State")
+    @Category({"PaperFX", "Network"})
+    @Description("Room.broadcastState: кодирование state и постановка в очереди клиентов")
+    @StackTrace(false)
+    static final class Broadcast extends Event {
+        @Label("Room") String roomId;
+        /** Байт UTF-8 (с переводами строк), реально поставленных в очереди получателей за эту рассылку. */
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Recipients") int recipients;
+        @Label("Keyframe") boolean keyframe;
+    }
+
+    @Name("paperfx.StorageCall")
+    @Label("Storage Call")
+    @Category({"PaperFX", "Storage"})
+    @Description("Вызов хранилища (PostgreSQL, файл или память)")
+    @StackTrace(false)
+    static final class StorageCall extends Event {
+        @Label("Operation") String op;
+        @Label("Succeeded") boolean ok;
+    }
+}
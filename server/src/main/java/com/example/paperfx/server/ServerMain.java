@@ -2,6 +2,8 @@ package com.example.paperfx.server;
 
 import com.example.paperfx.common.Messages;
 import com.example.paperfx.common.Net;
+import com.example.paperfx.common.RoomProfile;
+import com.example.paperfx.common.RoomSim;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -22,7 +24,46 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public final class ServerMain {
 
-    final Db db;
+    final Storage db;
+
+    final Metrics metrics = new Metrics();
+    final Metrics.Counter outboxOverflows = metrics.counter("paperfx_outbound_overflow_total",
+            "Connections closed because their outbound queue was full");
+    private final Metrics.Histogram tickSeconds = metrics.histogram("paperfx_tick_seconds",
+            "Game loop tick duration", Metrics.SECONDS);
+    private final Metrics.Histogram stepSeconds = metrics.histogram("paperfx_tick_phase_seconds",
+            "Game loop tick phase duration", Metrics.SECONDS, "phase", "step");
+    private final Metrics.Histogram broadcastSeconds = metrics.histogram("paperfx_tick_phase_seconds",
+            "Game loop tick phase duration", Metrics.SECONDS, "phase", "broadcast");
+    private final Metrics.Histogram maintenanceSeconds = metrics.histogram("paperfx_tick_phase_seconds",
+            "Game loop tick phase duration", Metrics.SECONDS, "phase", "maintenance");
+    // Счётчики сообщений/байт по типу: {сообщения, байты}; тип — из ограниченного набора (иначе "other").
+    private final ConcurrentHashMap<String, Metrics.Counter[]> inByType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Metrics.Counter[]> outByType = new ConcurrentHashMap<>();
+    final Metrics.Counter statesUnchanged = metrics.counter("paperfx_states_unchanged_total",
+            "Room broadcasts replaced by a short 'state unchanged' line");
+    final Metrics.Counter statesSkipped = metrics.counter("paperfx_states_skipped_total",
+            "State sends skipped by adaptive per-client send rate");
+    private final Metrics.Histogram rttSeconds = metrics.histogram("paperfx_rtt_seconds",
+            "Round-trip time measured by server ping/pong (includes outbound queueing)", Metrics.RTT_SECONDS);
+
+    /** Раз в сколько тиков сервер шлёт ping каждому авторизованному клиенту (1 с). */
+    static final int PING_EVERY_TICKS = 20;
+
+    /**
+     * Авторизованный клиент, от которого столько мс не пришло ни строки (ни {@code input}-heartbeat, ни {@code pong}),
+     * считается пропавшим и отключается. Проверка — раз в секунду вместе с ping.
+     */
+    static final long IDLE_TIMEOUT_MS = Long.parseLong(envOr("IDLE_TIMEOUT_MS", "15000"));
+    /** Сколько мс после подключения даётся на {@code login}/{@code register}. */
+    static final long AUTH_TIMEOUT_MS = Long.parseLong(envOr("AUTH_TIMEOUT_MS", "60000"));
+
+    /** Типы входящих сообщений, которые различаются в метриках. */
+    private static final Set<String> MESSAGE_TYPES = Set.of(
+            "register", "login", "input", "create_room", "join_room", "chat_send", "profile_get", "resync", "ping", "pong", "stats");
+
+    /** Имена пользователей, которым разрешено сообщение {@code stats} ({@code ADMIN_USERS}, через запятую). */
+    private static final Set<String> ADMIN_USERS = Set.copyOf(Arrays.asList(envOr("ADMIN_USERS", "").split("\\s*,\\s*")));
 
     private final int port;
     private final ServerSocket serverSocket;
@@ -30,12 +71,21 @@ public final class ServerMain {
     final CopyOnWriteArrayList<ClientConn> clients = new CopyOnWriteArrayList<>();
     final ConcurrentHashMap<String, ClientConn> activeByUsername = new ConcurrentHashMap<>();
     final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    /** Комнаты по числу свободных мест — для автовхода после логина. */
+    final FreeSlotIndex freeSlots = new FreeSlotIndex();
+    /** Когда шагать каждую комнату: комната с периодом профиля {@code k} базовых тиков выпадает раз в {@code k} тиков. */
+    private final TimingWheel<Room> roomWheel = new TimingWheel<>(ROOM_WHEEL_SLOTS);
 
     private final AtomicLong tick = new AtomicLong(0);
     private final Random rnd = new Random();
 
     private final AtomicLong roomSeq = new AtomicLong(1);
 
+    // Счётчики input: получено всего и сколько из них схлопнуто (перезаписано до применения в тике).
+    final AtomicLong inputsReceived = new AtomicLong();
+    final AtomicLong inputsCoalesced = new AtomicLong();
+    private long inputsReportedAt = 0;
+
     // ---- достижения ----
     enum AchMetric { TOTAL_KILLS, TOTAL_AREA, BEST_SCORE, BEST_KILLS_IN_GAME, BEST_KILL_STREAK }
 
@@ -70,26 +120,99 @@ public final class ServerMain {
 
     private static final long STATS_FLUSH_INTERVAL_MS = 30_000;
 
+    /** Период игрового цикла (тик), мс. */
+    static final long TICK_PERIOD_MS = RoomProfile.BASE_TICK_MS;
+    /** Число ячеек колеса комнат (период профиля может быть и длиннее). */
+    static final int ROOM_WHEEL_SLOTS = 64;
+
     public static void main(String[] args) throws Exception {
         int port = args.length >= 1 ? Integer.parseInt(args[0]) : 7777;
+        InboundLimiter.configure();
 
-        String dbUrl = envOr("DB_URL", "jdbc:postgresql://127.0.0.1:5433/paperfx");
-        String dbUser = envOr("DB_USER", "paperfx");
-        String dbPass = envOr("DB_PASS", "paperfx");
-
-        ServerMain s = new ServerMain(port, new Db(dbUrl, dbUser, dbPass));
+        ServerMain s = new ServerMain(port, storageFromEnv());
         s.start();
     }
 
-    public ServerMain(int port, Db db) throws IOException, SQLException {
+    /** Хранилище по {@code STORAGE}: {@code postgres} (по умолчанию), {@code file} или {@code memory}. */
+    static Storage storageFromEnv() {
+        String kind = envOr("STORAGE", "postgres").trim().toLowerCase(Locale.ROOT);
+        return switch (kind) {
+            case "memory" -> new MemoryStorage();
+            case "file" -> new FileStorage(java.nio.file.Path.of(envOr("STORAGE_FILE", "paperfx-data.jsonl")));
+            case "postgres" -> new Db(
+                    envOr("DB_URL", "jdbc:postgresql://127.0.0.1:5433/paperfx"),
+                    envOr("DB_USER", "paperfx"),
+                    envOr("DB_PASS", "paperfx"));
+            default -> throw new IllegalArgumentException("unknown STORAGE: " + kind + " (postgres|file|memory)");
+        };
+    }
+
+    public ServerMain(int port, Storage db) throws IOException, SQLException {
         this.port = port;
-        this.db = db;
+        this.db = new TimedStorage(db, metrics);
         this.db.init();
+        System.out.println("[server] storage: " + db.getClass().getSimpleName());
 
         this.serverSocket = new ServerSocket();
         this.serverSocket.bind(new InetSocketAddress("0.0.0.0", port));
 
-        rooms.putIfAbsent("MAIN", new Room(this, "MAIN"));
+        rooms.putIfAbsent("MAIN", schedule(new Room(this, "MAIN")));
+        registerMetrics();
+    }
+
+    /**
+     * Сервер без сокета и без инициализации БД: комнаты шагают и кодируют state в том же процессе
+     * (бенчмарки, симуляции). {@code db} может быть {@code null}, если сценарий не доходит до БД.
+     */
+    ServerMain(Storage db) {
+        this.port = -1;
+        this.db = (db == null) ? null : new TimedStorage(db, metrics);
+        this.serverSocket = null;
+
+        rooms.putIfAbsent("MAIN", schedule(new Room(this, "MAIN")));
+        registerMetrics();
+    }
+
+    /** Gauge-метрики, которые читают текущее состояние сервера в момент выдачи. */
+    private void registerMetrics() {
+        metrics.gauge("paperfx_rooms", "Rooms", rooms::size);
+        metrics.gauge("paperfx_rooms_asleep", "Rooms stepped at the slow rate because nothing changes", () -> {
+            int n = 0;
+            for (Room r : rooms.values()) if (r.asleep()) n++;
+            return n;
+        });
+        metrics.gauge("paperfx_players", "Players in rooms", () -> {
+            int n = 0;
+            for (Room r : rooms.values()) n += r.players.size();
+            return n;
+        });
+        metrics.gauge("paperfx_spectators", "Spectating clients", () -> {
+            int n = 0;
+            for (ClientConn c : clients) if (c.authed && c.spectator) n++;
+            return n;
+        });
+        metrics.gauge("paperfx_clients", "Connected clients", clients::size);
+        metrics.gauge("paperfx_outbound_queue_depth", "Outbound queue length over clients (stat: sum or max)", () -> {
+            int n = 0;
+            for (ClientConn c : clients) n += c.outbox.size();
+            return n;
+        }, "stat", "sum");
+        metrics.gauge("paperfx_outbound_queue_depth", "Outbound queue length over clients (stat: sum or max)", () -> {
+            int n = 0;
+            for (ClientConn c : clients) n = Math.max(n, c.outbox.size());
+            return n;
+        }, "stat", "max");
+        for (int every = 1; every <= SendRate.MAX_EVERY; every *= 2) {
+            int e = every;
+            metrics.gauge("paperfx_send_rate_clients", "Players by state send interval (ticks)", () -> {
+                int n = 0;
+                for (ClientConn c : clients) if (c.authed && !c.spectator && c.sendRate.every() == e) n++;
+                return n;
+            }, "every", Integer.toString(every));
+        }
+        metrics.counterFn("paperfx_inputs_received_total", "Input messages received", inputsReceived::get);
+        metrics.counterFn("paperfx_inputs_coalesced_total", "Inputs overwritten before the tick applied them", inputsCoalesced::get);
+        metrics.counterFn("paperfx_ticks_total", "Game loop ticks", tick::get);
     }
 
     public void start() {
@@ -99,30 +222,56 @@ public final class ServerMain {
         acceptor.setDaemon(true);
         acceptor.start();
 
+        int metricsPort = Integer.parseInt(envOr("METRICS_PORT", "9464"));
+        if (metricsPort > 0) {
+            String host = envOr("METRICS_HOST", "127.0.0.1");
+            try {
+                metrics.serve(host, metricsPort);
+                System.out.println("[server] metrics on http://" + host + ":" + metricsPort + "/metrics");
+            } catch (IOException e) {
+                System.err.println("[server] metrics endpoint error: " + e.getMessage());
+            }
+        }
+
         ScheduledExecutorService loop = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "game-loop");
             t.setDaemon(true);
             return t;
         });
 
-        final long periodMs = 50;
-        final long[] lastNs = { System.nanoTime() };
+        final long periodMs = TICK_PERIOD_MS;
+        final List<Room> due = new ArrayList<>();
 
         loop.scheduleAtFixedRate(() -> {
-            long now = System.nanoTime();
-            double dt = (now - lastNs[0]) / 1_000_000_000.0;
-            lastNs[0] = now;
-
-            // Снимок коллекции комнат, чтобы избежать ошибка одновременной модификации при добавлении/удалении.
-            List<Room> snap = new ArrayList<>(rooms.values());
-
-            for (Room room : snap) room.step(dt);
+            // Комнаты, которым пора (колесо по периодам профилей): остальные в этот тик не трогаются вовсе.
+            // Шаг фиксированный (период профиля): симуляция не зависит от фактического интервала между тиками.
+            ServerEvents.Tick ev = new ServerEvents.Tick();
+            ev.begin();
+            long t0 = System.nanoTime();
             long t = tick.incrementAndGet();
-            for (Room room : snap) room.broadcastState(t);
-
-            // Периодическая очистка пустых комнат (главную комнату не удаляем).
-            if (t % 20 == 0) cleanupEmptyRooms();
+            due.clear();
+            roomWheel.advance(t, due);
+            for (Room room : due) if (room.nextTick()) room.step();
+            long t1 = System.nanoTime();
+            for (Room room : due) room.broadcastState(room.tick);
+            long t2 = System.nanoTime();
+
+            if (t % PING_EVERY_TICKS == 0) pingClients();
+            if (t % PING_EVERY_TICKS == 0) reapIdleClients();
             if (t % 600 == 0) flushAllUserStats(false);
+            if (t % 600 == 0) reportInputs();
+            long t3 = System.nanoTime();
+
+            stepSeconds.observeNanos(t1 - t0);
+            broadcastSeconds.observeNanos(t2 - t1);
+            maintenanceSeconds.observeNanos(t3 - t2);
+            tickSeconds.observeNanos(t3 - t0);
+            ev.end();
+            if (ev.shouldCommit()) {
+                ev.tick = t;
+                ev.rooms = due.size();
+                ev.commit();
+            }
 
         }, 0, periodMs, TimeUnit.MILLISECONDS);
 
@@ -135,6 +284,8 @@ public final class ServerMain {
                 Socket s = serverSocket.accept();
                 s.setTcpNoDelay(true);
                 s.setKeepAlive(true);
+                // Запасной таймаут чтения на случай, если игровой цикл не успевает проверять клиентов.
+                s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, 2 * Math.max(IDLE_TIMEOUT_MS, AUTH_TIMEOUT_MS)));
 
                 ClientConn c = new ClientConn(this, s);
                 clients.add(c);
@@ -148,10 +299,27 @@ public final class ServerMain {
     }
 
     Room getOrCreateRoom(String roomId) {
+        return getOrCreateRoom(roomId, false);
+    }
+
+    /** Как {@link #getOrCreateRoom(String)}, но новая комната создаётся в режиме lockstep, если {@code lockstep}. */
+    Room getOrCreateRoom(String roomId, boolean lockstep) {
+        return getOrCreateRoom(roomId, lockstep, RoomProfile.CLASSIC);
+    }
+
+    /** Как {@link #getOrCreateRoom(String, boolean)}; профиль применяется только к новой комнате. */
+    Room getOrCreateRoom(String roomId, boolean lockstep, RoomProfile profile) {
         String id = (roomId == null || roomId.isBlank()) ? "MAIN" : roomId.trim();
         if (id.length() > 32) id = id.substring(0, 32);
         String finalId = id;
-        return rooms.computeIfAbsent(finalId, rid -> new Room(this, rid));
+        return rooms.computeIfAbsent(finalId, rid -> schedule(new Room(this, rid, lockstep, profile)));
+    }
+
+    /** Ставит комнату в игровой цикл; первый шаг — со случайным сдвигом внутри периода, чтобы комнаты не шагали кучно. */
+    private Room schedule(Room room) {
+        int period = room.profile.periodTicks();
+        roomWheel.add(room, period, 1 + ThreadLocalRandom.current().nextInt(period));
+        return room;
     }
 
     // ---- вызывается из класса соединения клиента ----
@@ -166,7 +334,10 @@ public final class ServerMain {
                 case "join_room" -> onJoinRoom(c, n);
                 case "chat_send" -> onChatSend(c, n);
                 case "profile_get" -> onProfileGet(c);
-                case "ping" -> { /* keepalive */ }
+                case "resync" -> onResync(c);
+                case "ping" -> onPing(c, n);
+                case "pong" -> onPong(c, n);
+                case "stats" -> onStats(c);
                 default -> c.sendJson(error("unknown_message"));
             }
         } catch (Exception e) {
@@ -185,23 +356,112 @@ public final class ServerMain {
         if (c.roomId != null) {
             Room room = rooms.get(c.roomId);
             if (room != null && c.playerId != null) room.removePlayer(c.playerId, false);
-            // Удаляем пустые комнаты (кроме главной).
-            cleanupEmptyRooms();
         }
+        // Уходим из комнаты; опустевшая комната (кроме главной) удаляется.
+        moveClient(c, null);
 
-        try { c.close(); } catch (Exception ignored) {}
+        try { c.closeWhenFlushed(); } catch (Exception ignored) {}
 
         try {
-            System.out.println("[server] client disconnected: " + c.socket.getRemoteSocketAddress());
+            System.out.println("[server] client disconnected: " + c.socket.getRemoteSocketAddress()
+                    + (c.reapReason != null ? " (" + c.reapReason + ")" : ""));
         } catch (Exception ignored) {}
     }
 
+    /** Учёт входящей строки в метриках (вызывается потоком чтения клиента). */
+    void countIn(String type, int bytes) {
+        String key = MESSAGE_TYPES.contains(type) ? type : "other";
+        Metrics.Counter[] c = inByType.computeIfAbsent(key, k -> new Metrics.Counter[]{
+                metrics.counter("paperfx_messages_in_total", "Messages received by type", "type", k),
+                metrics.counter("paperfx_bytes_in_total", "Bytes received by message type", "type", k)});
+        c[0].inc();
+        c[1].add(bytes);
+    }
+
+    /**
+     * Закрывает соединения, которые молчат дольше {@link #IDLE_TIMEOUT_MS} (или не авторизовались за
+     * {@link #AUTH_TIMEOUT_MS}). Закрытие сокета будит поток чтения, и он освобождает игрока, слот и индексы
+     * через {@link #onDisconnected}, как при обычном отключении.
+     */
+    private void reapIdleClients() {
+        long now = System.nanoTime();
+        for (ClientConn c : clients) {
+            if (c.reapReason != null) continue;
+            if (c.authed) {
+                if (now - c.lastRecvNs > IDLE_TIMEOUT_MS * 1_000_000L) reap(c, "idle");
+            } else if (now - c.connectedNs > AUTH_TIMEOUT_MS * 1_000_000L) {
+                reap(c, "auth_timeout");
+            }
+        }
+    }
+
+    void reap(ClientConn c, String reason) {
+        c.reapReason = reason;
+        metrics.counter("paperfx_connections_reaped_total", "Connections closed by the server for silence", "reason", reason).inc();
+        c.close();
+    }
+
+    /** Учёт нарушения лимитов входящих сообщений ({@code what} — тип сообщения, {@code any} или {@code line_too_long}). */
+    void onFlood(String what) {
+        String key = (MESSAGE_TYPES.contains(what) || "any".equals(what) || "line_too_long".equals(what)) ? what : "other";
+        metrics.counter("paperfx_inbound_limited_total", "Inbound lines rejected by rate limits or max line length",
+                "type", key, "action", InboundLimiter.action.name().toLowerCase(Locale.ROOT)).inc();
+    }
+
+    /**
+     * Учёт исходящей строки, отправленной {@code copies} клиентам (тип — из начала строки {@code {"type":"..."}}).
+     * Рассылка учитывает строку один раз на всех получателей: тип и длина считаются однократно.
+     * Возвращает число отправленных байт (с переводами строк).
+     */
+    long countOut(String jsonLine, int copies) {
+        if (jsonLine == null || copies <= 0) return 0;
+        Metrics.Counter[] c = outByType.computeIfAbsent(lineType(jsonLine), k -> new Metrics.Counter[]{
+                metrics.counter("paperfx_messages_out_total", "Messages sent by type", "type", k),
+                metrics.counter("paperfx_bytes_out_total", "Bytes sent by message type", "type", k)});
+        long bytes = (utf8Length(jsonLine) + 1L) * copies;
+        c[0].add(copies);
+        c[1].add(bytes);
+        return bytes;
+    }
+
+    /** Длина строки в UTF-8 (байты на проводе), без кодирования в массив. */
+    static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) n++;
+            else if (ch < 0x800) n += 2;
+            else if (Character.isSurrogate(ch)) n += 2; // пара суррогатов — 4 байта
+            else n += 3;
+        }
+        return n;
+    }
+
+    private static final String TYPE_PREFIX = "{\"type\":\"";
+
+    /** Тип исходящего сообщения: все DTO и ObjectNode сервера начинаются с поля {@code type}. */
+    static String lineType(String jsonLine) {
+        if (!jsonLine.startsWith(TYPE_PREFIX)) return "other";
+        // Самый частый случай — state: без выделения подстроки.
+        if (jsonLine.startsWith("state\"", TYPE_PREFIX.length())) return "state";
+        int end = jsonLine.indexOf('"', TYPE_PREFIX.length());
+        return (end < 0 || end - TYPE_PREFIX.length() > 24) ? "other" : jsonLine.substring(TYPE_PREFIX.length(), end);
+    }
+
+    /** Раз в 30 с пишет в лог, сколько input пришло и сколько схлопнуто (если за период что-то было). */
+    private void reportInputs() {
+        long received = inputsReceived.get();
+        if (received == inputsReportedAt) return;
+        inputsReportedAt = received;
+        System.out.println("[server] inputs received=" + received + ", coalesced=" + inputsCoalesced.get());
+    }
+
     // ---- обработчики ----
 
     private void onRegister(ClientConn c, JsonNode n) throws SQLException {
         String u = n.path("username").asText("");
         String p = n.path("password").asText("");
-        Db.RegisterResult r = db.register(u, p);
+        Storage.RegisterResult r = db.register(u, p);
         if (!r.ok()) { c.sendJson(error(r.error())); return; }
         // авто-логин
         ObjectNode login = Net.MAPPER.createObjectNode();
@@ -217,14 +477,14 @@ public final class ServerMain {
         String u = n.path("username").asText("");
         String p = n.path("password").asText("");
 
-        Db.LoginResult r = db.login(u, p);
+        Storage.LoginResult r = db.login(u, p);
         if (!r.ok()) { c.sendJson(error(r.error())); return; }
 
         // 1 активная сессия на имя пользователя: новый вход выкидывает старый
         ClientConn prev = activeByUsername.put(r.username(), c);
         if (prev != null && prev != c) {
             prev.sendJson(error("kicked_duplicate_login"));
-            try { prev.close(); } catch (Exception ignored) {}
+            prev.closeAfterFlush();
         }
 
         c.authed = true;
@@ -233,7 +493,7 @@ public final class ServerMain {
 
         c.bestScore = r.bestScore();
         try {
-            Db.UserStats st = db.loadOrCreateStats(c.userId);
+            Storage.UserStats st = db.loadOrCreateStats(c.userId);
             c.killsTotal = st.kills();
             c.areaTotal = st.area();
             c.bestKillsInGame = st.bestKillsInGame();
@@ -253,17 +513,14 @@ public final class ServerMain {
             throw new RuntimeException(e);
         }
 
-        // Автовход в главную комнату (или другую неполную; иначе создаём новую).
+        // Автовход в главную комнату (или самую заполненную неполную; иначе создаём новую).
         Room main = getOrCreateRoom("MAIN");
-        if (main.players.size() < Room.ROOM_CAPACITY) {
+        if (main.players.size() < main.capacity()) {
             main.join(c, false);
         } else {
-            Room target = null;
-            for (Room room : rooms.values()) {
-                if ("MAIN".equals(room.roomId)) continue;
-                if (room.players.size() < Room.ROOM_CAPACITY) { target = room; break; }
-            }
-            if (target == null) target = getOrCreateRoom(newAutoRoomId());
+            Room target = freeSlots.pick(main);
+            // Свободный id мог успеть занять create_room с другим профилем — тогда берём следующий.
+            while (target == null || !target.autoJoinable()) target = getOrCreateRoom(newAutoRoomId());
             target.join(c, false);
         }
     }
@@ -281,21 +538,27 @@ public final class ServerMain {
     }
 
     /**
-     * Removes rooms that have no connected authenticated clients.
-     * MAIN is never removed.
+     * Переводит авторизованное соединение в комнату {@code to} ({@code null} — выход из комнат) и ведёт
+     * состав комнат {@link Room#members}. Комната, из которой ушёл последний участник (игрок или наблюдатель),
+     * удаляется сразу; главная — никогда. Под общим замком, чтобы вход в комнату не разошёлся с её удалением.
      */
-    private void cleanupEmptyRooms() {
-        // Определяем, какие комнаты заняты любыми авторизованными подключениями (игроки/наблюдатели).
-        HashSet<String> occupied = new HashSet<>();
-        for (ClientConn c : clients) {
-            if (!c.authed) continue;
-            if (c.roomId == null) continue;
-            occupied.add(c.roomId);
-        }
-
-        for (String roomId : new ArrayList<>(rooms.keySet())) {
-            if ("MAIN".equals(roomId)) continue;
-            if (!occupied.contains(roomId)) rooms.remove(roomId);
+    void moveClient(ClientConn c, Room to) {
+        synchronized (rooms) {
+            Room from = c.room;
+            if (from == to) return;
+            c.roomEpoch++;
+            if (from != null && from.members.remove(c) && from.members.isEmpty() && !"MAIN".equals(from.roomId)) {
+                if (rooms.remove(from.roomId, from)) {
+                    freeSlots.remove(from);
+                    roomWheel.remove(from);
+                }
+            }
+            if (to != null) {
+                to.members.add(c);
+                // Комнату успели удалить между getOrCreateRoom и входом — возвращаем.
+                if (rooms.putIfAbsent(to.roomId, to) == null) schedule(to);
+            }
+            c.room = to;
         }
     }
 
@@ -312,16 +575,22 @@ public final class ServerMain {
         int dy = clampDir(n.path("dy").asInt(0));
         if (dx != 0 && dy != 0) dy = 0;
 
-        p.inputDx = dx;
-        p.inputDy = dy;
+        long seq = n.path("seq").asLong(0);
+        inputsReceived.incrementAndGet();
+        if (p.offerInput(dx, dy, seq)) inputsCoalesced.incrementAndGet();
+        // Heartbeat с прежним направлением спящую комнату не будит, смена направления — будит.
+        if (dx != p.inputDx || dy != p.inputDy || seq != p.inputSeq) room.wake();
     }
 
     private void onCreateRoom(ClientConn c, JsonNode n) {
         if (!c.authed) { c.sendJson(error("not_authenticated")); return; }
         String id = n.path("roomId").asText("");
         if (id == null || id.isBlank()) id = "R" + Integer.toHexString(rnd.nextInt()).replace("-", "");
-        getOrCreateRoom(id).join(c, false);
-        cleanupEmptyRooms();
+        boolean lockstep = n.path("lockstep").asBoolean(false);
+        RoomProfile profile = RoomProfile.byName(n.path("profile").asText(""));
+        if (profile == null) { c.sendJson(error("unknown_profile")); return; }
+        if (lockstep && !profile.lockstepSupported()) { c.sendJson(error("lockstep_unsupported")); return; }
+        getOrCreateRoom(id, lockstep, profile).join(c, false);
     }
 
     private void onJoinRoom(ClientConn c, JsonNode n) {
@@ -329,7 +598,12 @@ public final class ServerMain {
         String id = n.path("roomId").asText("");
         boolean spectator = n.path("spectator").asBoolean(false);
         getOrCreateRoom(id).join(c, spectator);
-        cleanupEmptyRooms();
+    }
+
+    private void onResync(ClientConn c) {
+        if (!c.authed) { c.sendJson(error("not_authenticated")); return; }
+        Room room = rooms.get(c.roomId);
+        if (room != null) room.requestKeyframe();
     }
 
     private void onChatSend(ClientConn c, JsonNode n) {
@@ -340,6 +614,57 @@ public final class ServerMain {
         room.chatSend(c, text);
     }
 
+    /** Server-initiated ping: {@code t} — наш nanoTime, {@code st} — наши часы, {@code rtt} — текущая оценка для клиента. */
+    private void pingClients() {
+        long nowNs = System.nanoTime(), nowMs = System.currentTimeMillis();
+        for (ClientConn c : clients) {
+            if (!c.authed) continue;
+            c.send("{\"type\":\"ping\",\"t\":" + nowNs + ",\"st\":" + nowMs
+                    + ",\"rtt\":" + Math.round(c.rtt.rttMs()) + ",\"offset\":" + Math.round(c.rtt.clockOffsetMs()) + "}");
+        }
+    }
+
+    private void onPong(ClientConn c, JsonNode n) {
+        double rtt = c.rtt.onPong(n.path("t").asLong(0), n.path("st").asLong(0), n.path("ct").asLong(-1), System.nanoTime());
+        if (rtt >= 0) rttSeconds.observe(rtt / 1e3);
+    }
+
+    /** Ping от клиента: отвечаем сразу, возвращая его {@code t} (клиент сам считает свой RTT). */
+    private void onPing(ClientConn c, JsonNode n) {
+        ObjectNode pong = Net.MAPPER.createObjectNode();
+        pong.put("type", "pong");
+        pong.set("t", n.path("t"));
+        pong.put("st", System.currentTimeMillis());
+        c.sendJson(pong);
+    }
+
+    /** Админский снимок метрик по TCP (только для пользователей из {@code ADMIN_USERS}). */
+    private void onStats(ClientConn c) {
+        if (!c.authed) { c.sendJson(error("not_authenticated")); return; }
+        if (!ADMIN_USERS.contains(c.username)) { c.sendJson(error("forbidden")); return; }
+
+        ObjectNode msg = Net.MAPPER.createObjectNode();
+        msg.put("type", "stats");
+        msg.put("tick", tick.get());
+        msg.set("metrics", metrics.snapshot());
+
+        com.fasterxml.jackson.databind.node.ArrayNode arr = msg.putArray("clients");
+        for (ClientConn cc : clients) {
+            if (!cc.authed) continue;
+            ObjectNode o = arr.addObject();
+            o.put("username", cc.username);
+            o.put("roomId", cc.roomId);
+            o.put("spectator", cc.spectator);
+            o.put("rttMs", Math.round(cc.rtt.rttMs() * 10) / 10.0);
+            o.put("rttVarMs", Math.round(cc.rtt.rttVarMs() * 10) / 10.0);
+            o.put("rttP99Ms", cc.rtt.histogram.quantile(0.99) * 1e3);
+            o.put("clockOffsetMs", Math.round(cc.rtt.clockOffsetMs()));
+            o.put("outbox", cc.outbox.size());
+            o.put("sendEvery", cc.sendRate.every());
+        }
+        c.sendJson(msg);
+    }
+
     private void onProfileGet(ClientConn c) {
         if (!c.authed) { c.sendJson(error("not_authenticated")); return; }
 
@@ -448,6 +773,7 @@ public final class ServerMain {
             try {
                 boolean inserted = db.unlockAchievement(c.userId, d.code());
                 if (inserted) {
+                    metrics.counter("paperfx_achievements_unlocked_total", "Achievements unlocked", "code", d.code()).inc();
                     c.unlockedAchievements.add(d.code());
                     room.systemChat("🏆 " + c.username + " unlocked achievement: " + d.title());
                 } else {
@@ -462,11 +788,11 @@ public final class ServerMain {
     // ---- рассылка ----
 
     void broadcastToRoom(String roomId, String jsonLine) {
-        for (ClientConn c : clients) {
-            if (!c.authed) continue;
-            if (!roomId.equals(c.roomId)) continue;
-            c.send(jsonLine);
-        }
+        Room room = rooms.get(roomId);
+        if (room == null) return;
+        int n = 0;
+        for (ClientConn c : room.members) if (c.enqueue(jsonLine)) n++;
+        countOut(jsonLine, n);
     }
 
     void broadcastJsonToRoom(String roomId, ObjectNode msg) {
@@ -499,23 +825,11 @@ public final class ServerMain {
 
     private static int clampDir(int v) { return v < 0 ? -1 : (v > 0 ? 1 : 0); }
 
+    /**
+     * Совместимое имя, оставлено для совместимости с более ранними изменениями (см. {@link RoomSim#bresenham}).
+     */
     static List<int[]> bresenham(int x0, int y0, int x1, int y1) {
-        ArrayList<int[]> out = new ArrayList<>();
-        int dx = Math.abs(x1 - x0);
-        int sx = x0 < x1 ? 1 : -1;
-        int dy = -Math.abs(y1 - y0);
-        int sy = y0 < y1 ? 1 : -1;
-        int err = dx + dy;
-
-        int x = x0, y = y0;
-        while (true) {
-            out.add(new int[]{x, y});
-            if (x == x1 && y == y1) break;
-            int e2 = 2 * err;
-            if (e2 >= dy) { err += dy; x += sx; }
-            if (e2 <= dx) { err += dx; y += sy; }
-        }
-        return out;
+        return RoomSim.bresenham(x0, y0, x1, y1);
     }
 
     static String envOr(String k, String def) {
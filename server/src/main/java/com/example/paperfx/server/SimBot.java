@@ -0,0 +1,99 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.RoomSim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Бот без соединения для симуляции и бенчмарков: сущность игрока, которой ввод выставляется напрямую.
+ * <p>
+ * В режиме петель каждый бот ходит квадратом в своей части поля и на каждом круге захватывает область
+ * (следы ботов не пересекаются — нет смертей и обращений к БД). В случайном режиме боты поворачивают
+ * случайно, поэтому бывают и убийства.
+ */
+
+final class SimBot {
+    final PlayerEntity p;
+    private final int[][] route;
+    private final Random rnd;
+    private int next = 0;
+    private int turnIn = 0;
+
+    private SimBot(PlayerEntity p, int[][] route, Random rnd) {
+        this.p = p;
+        this.route = route;
+        this.rnd = rnd;
+    }
+
+    /**
+     * Заполняет комнату ботами. {@code loop} — сторона петли в клетках; {@code rnd == null} — режим петель,
+     * иначе случайные повороты.
+     */
+    static List<SimBot> fill(Room room, int players, int loop, Random rnd) {
+        RoomSim sim = room.sim;
+        int n = Math.min(players, room.capacity() - room.players.size());
+        int cols = (int) Math.ceil(Math.sqrt(Math.max(1, n)));
+        int rows = (int) Math.ceil(n / (double) cols);
+        int cw = sim.gridW / cols, ch = sim.gridH / Math.max(1, rows);
+        int r = Math.max(2, Math.min(loop, Math.min(cw, ch) / 2 - 2));
+
+        List<SimBot> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int idx = room.allocIdx();
+            if (idx < 0) break;
+            PlayerEntity p = new PlayerEntity(UUID.randomUUID().toString(), "bot" + idx, "bot-" + UUID.randomUUID(),
+                    idx, ServerMain.pickColor(room.roomId, "bot" + idx), null);
+            room.addEntity(p);
+
+            int cx = (i % cols) * cw + cw / 2;
+            int cy = (i / cols) * ch + ch / 2;
+            place(room, p, cx, cy);
+
+            // Выход из территории вправо, обход по часовой стрелке и возврат в центр.
+            int[][] route = {{cx + r, cy}, {cx + r, cy + r}, {cx - r / 2, cy + r}, {cx - r / 2, cy}, {cx, cy}};
+            for (int[] w : route) {
+                w[0] = RoomSim.clampInt(w[0], 0, sim.gridW - 1);
+                w[1] = RoomSim.clampInt(w[1], 0, sim.gridH - 1);
+            }
+            out.add(new SimBot(p, route, rnd));
+        }
+        return out;
+    }
+
+    /** Выставляет ввод на следующий шаг комнаты. */
+    void steer() {
+        if (rnd != null) { steerRandom(); return; }
+
+        int[] w = route[next];
+        int dx = Integer.signum(w[0] - p.cellX);
+        int dy = Integer.signum(w[1] - p.cellY);
+        if (dx == 0 && dy == 0) {
+            next = (next + 1) % route.length;
+            w = route[next];
+            dx = Integer.signum(w[0] - p.cellX);
+            dy = Integer.signum(w[1] - p.cellY);
+        }
+        if (dx != 0) dy = 0;
+        p.inputDx = dx;
+        p.inputDy = dy;
+    }
+
+    private void steerRandom() {
+        if (--turnIn > 0 && (p.inputDx != 0 || p.inputDy != 0)) return;
+        turnIn = 5 + rnd.nextInt(25);
+        int d = rnd.nextInt(4);
+        p.inputDx = (d == 0) ? 1 : (d == 2) ? -1 : 0;
+        p.inputDy = (d == 1) ? 1 : (d == 3) ? -1 : 0;
+    }
+
+    /** Переносит игрока и его стартовую территорию в клетку {@code (cx, cy)}. */
+    private static void place(Room room, PlayerEntity p, int cx, int cy) {
+        synchronized (room.simLock) {
+            room.sim.owners.clear(p.idx);
+            room.sim.placeAt(p, cx, cy);
+        }
+    }
+}
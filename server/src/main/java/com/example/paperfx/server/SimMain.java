@@ -0,0 +1,144 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Net;
+import com.example.paperfx.common.RoomProfile;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Симуляция нагрузки внутри процесса сервера: M комнат с ботами ({@link SimBot}), без сокетов и PostgreSQL
+ * (хранилище — {@link MemoryStorage}). Игровой цикл крутится без пауз: T тиков «ввод → шаг → рассылка», как в
+ * {@link ServerMain#start}, и по ним считаются тики в секунду, время фаз и скорость аллокаций.
+ * <pre>
+ * ./gradlew :server:sim --args="--rooms 500 --players 4 --ticks 2000"
+ * ./gradlew :server:sim --args="--rooms 20 --players 64 --profile arena"
+ * </pre>
+ */
+
+public final class SimMain {
+    private SimMain() {}
+
+    public static void main(String[] args) throws Exception {
+        int rooms = 100, players = 4, ticks = 1000, warmup = 200, loop = 8;
+        boolean random = false;
+        RoomProfile profile = RoomProfile.CLASSIC;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            String v = (i + 1 < args.length) ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--rooms" -> rooms = Integer.parseInt(v);
+                case "--players" -> players = Integer.parseInt(v);
+                case "--ticks" -> ticks = Integer.parseInt(v);
+                case "--warmup" -> warmup = Integer.parseInt(v);
+                case "--loop" -> loop = Integer.parseInt(v);
+                case "--mode" -> random = "random".equals(v);
+                case "--seed" -> seed = Long.parseLong(v);
+                case "--profile" -> {
+                    profile = RoomProfile.byName(v);
+                    if (profile == null) throw new IllegalArgumentException("unknown profile: " + v);
+                }
+                default -> throw new IllegalArgumentException("unknown arg: " + args[i]);
+            }
+            i++;
+        }
+
+        MemoryStorage db = new MemoryStorage();
+        ServerMain server = new ServerMain(db);
+        Random rnd = random ? new Random(seed) : null;
+
+        List<Room> roomList = new ArrayList<>(rooms);
+        List<SimBot> bots = new ArrayList<>();
+        for (int r = 0; r < rooms; r++) {
+            Room room = server.getOrCreateRoom("SIM" + r, false, profile);
+            roomList.add(room);
+            bots.addAll(SimBot.fill(room, players, loop, rnd));
+        }
+        System.out.println("[sim] rooms=" + rooms + " bots=" + bots.size() + " ticks=" + ticks
+                + " mode=" + (random ? "random" : "loop") + " profile=" + profile.name());
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long[] inputNs = new long[ticks], stepNs = new long[ticks], broadcastNs = new long[ticks];
+        long allocStart = 0, wallStart = 0;
+        long tick = 0;
+        for (int t = -warmup; t < ticks; t++) {
+            if (t == 0) {
+                allocStart = mx.getCurrentThreadAllocatedBytes();
+                wallStart = System.nanoTime();
+            }
+            long t0 = System.nanoTime();
+            for (SimBot b : bots) b.steer();
+            long t1 = System.nanoTime();
+            for (Room room : roomList) room.step();
+            long t2 = System.nanoTime();
+            tick++;
+            for (Room room : roomList) room.broadcastState(tick);
+            long t3 = System.nanoTime();
+
+            if (t >= 0) {
+                inputNs[t] = t1 - t0;
+                stepNs[t] = t2 - t1;
+                broadcastNs[t] = t3 - t2;
+            }
+        }
+        double wallSec = (System.nanoTime() - wallStart) / 1e9;
+        long allocBytes = mx.getCurrentThreadAllocatedBytes() - allocStart;
+
+        long[] total = new long[ticks];
+        for (int t = 0; t < ticks; t++) total[t] = inputNs[t] + stepNs[t] + broadcastNs[t];
+        double tickAvgMs = avg(total) / 1e6;
+        double ticksPerSec = ticks / wallSec;
+        // Каждый тик симуляции — шаг всех комнат, то есть один период профиля.
+        double budgetMs = profile.tickMs();
+
+        System.out.printf("[sim] %.0f ticks/s flat out; tick avg %.3f ms, p50 %.3f, p99 %.3f, max %.3f (budget %.0f ms)%n",
+                ticksPerSec, tickAvgMs, pct(total, 0.50) / 1e6, pct(total, 0.99) / 1e6, max(total) / 1e6, budgetMs);
+        System.out.printf("[sim] phases avg: input %.3f ms, step %.3f ms, broadcast %.3f ms%n",
+                avg(inputNs) / 1e6, avg(stepNs) / 1e6, avg(broadcastNs) / 1e6);
+        System.out.printf("[sim] alloc %.1f KB/tick, %.1f MB/s at %d Hz; rooms per tick budget ~%.0f%n",
+                allocBytes / 1024.0 / ticks, allocBytes / (double) ticks * (1000.0 / budgetMs) / (1024 * 1024),
+                1000 / profile.tickMs(), rooms * budgetMs / tickAvgMs);
+
+        ObjectNode n = Net.MAPPER.createObjectNode();
+        n.put("rooms", rooms);
+        n.put("bots", bots.size());
+        n.put("ticks", ticks);
+        n.put("mode", random ? "random" : "loop");
+        n.put("profile", profile.name());
+        n.put("ticksPerSec", Math.round(ticksPerSec));
+        n.put("tickAvgMs", round3(tickAvgMs));
+        n.put("tickP99Ms", round3(pct(total, 0.99) / 1e6));
+        n.put("inputAvgMs", round3(avg(inputNs) / 1e6));
+        n.put("stepAvgMs", round3(avg(stepNs) / 1e6));
+        n.put("broadcastAvgMs", round3(avg(broadcastNs) / 1e6));
+        n.put("allocBytesPerTick", allocBytes / ticks);
+        n.put("dbResults", db.results.get());
+        System.out.println(Net.toJson(n));
+    }
+
+    private static double round3(double v) { return Math.round(v * 1000) / 1000.0; }
+
+    private static double avg(long[] a) {
+        long s = 0;
+        for (long v : a) s += v;
+        return a.length == 0 ? 0 : s / (double) a.length;
+    }
+
+    private static long pct(long[] a, double q) {
+        if (a.length == 0) return 0;
+        long[] s = Arrays.copyOf(a, a.length);
+        Arrays.sort(s);
+        return s[Math.max(0, Math.min(s.length - 1, (int) Math.ceil(q * s.length) - 1))];
+    }
+
+    private static long max(long[] a) {
+        long m = 0;
+        for (long v : a) m = Math.max(m, v);
+        return m;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.paperfx.server;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Лента состояния для наблюдателей комнаты.
+ * <p>
+ * Наблюдателям не нужна низкая задержка, поэтому они получают кадры реже игроков
+ * ({@code SPECTATOR_HZ}) и, при желании, с задержкой ({@code SPECTATOR_DELAY_MS}).
+ * Кадр кодируется один раз на комнату и рассылается всем наблюдателям одной и той же строкой.
+ */
+
+final class SpectatorFeed {
+    static final int RATE_HZ = Integer.parseInt(ServerMain.envOr("SPECTATOR_HZ", "5"));
+    static final long DELAY_MS = Long.parseLong(ServerMain.envOr("SPECTATOR_DELAY_MS", "0"));
+
+    /** Каждый какой тик комнаты попадает в ленту наблюдателей. */
+    final int everyTicks;
+    /** Сколько кадров держим в буфере задержки перед отправкой. */
+    final int delayFrames;
+
+    private final ArrayDeque<String> delayed = new ArrayDeque<>();
+
+    SpectatorFeed(long periodMs) {
+        this(RATE_HZ, DELAY_MS, periodMs);
+    }
+
+    SpectatorFeed(int rateHz, long delayMs, long periodMs) {
+        int tickHz = (int) Math.max(1, 1000 / Math.max(1, periodMs));
+        this.everyTicks = Math.max(1, Math.round(tickHz / (float) Math.max(1, rateHz)));
+        long frameMs = everyTicks * periodMs;
+        this.delayFrames = (int) Math.max(0, (delayMs + frameMs - 1) / frameMs);
+    }
+
+    /**
+     * Передаёт ленте очередной тик комнаты.
+     * <p>
+     * Кадр кодируется (через {@code encoder}) только на тиках ленты.
+     * Возвращает строку, которую нужно разослать наблюдателям прямо сейчас, либо {@code null}.
+     */
+    String offer(long tick, boolean hasSpectators, Supplier<String> encoder) {
+        if (!hasSpectators) {
+            // Без зрителей не кодируем и не держим устаревшие кадры в памяти.
+            delayed.clear();
+            return null;
+        }
+        if (tick % everyTicks != 0) return null;
+
+        String frame = encoder.get();
+        if (frame == null) return null;
+        if (delayFrames == 0) return frame;
+
+        delayed.addLast(frame);
+        return delayed.size() > delayFrames ? delayed.pollFirst() : null;
+    }
+}
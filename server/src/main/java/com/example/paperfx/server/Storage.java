@@ -0,0 +1,60 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Messages;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Хранилище пользователей, результатов, статистики и достижений.
+ * <p>
+ * Реализации: {@link Db} (PostgreSQL), {@link MemoryStorage} (в памяти процесса, для бенчмарков и тестовых
+ * стендов) и {@link FileStorage} (встроенное, журнал в одном файле). Выбирается переменной {@code STORAGE}
+ * в {@link ServerMain#main}. Ошибки доступа к данным любой реализации приходят как {@link SQLException}.
+ */
+
+public interface Storage {
+    /** Подготовка хранилища (схема, чтение файла); вызывается один раз при старте сервера. */
+    void init() throws SQLException;
+
+    RegisterResult register(String username, String password) throws SQLException;
+
+    LoginResult login(String username, String password) throws SQLException;
+
+    /** Результат игры: +1 сыгранная игра и лучший счёт. */
+    void recordResult(String userId, int score) throws SQLException;
+
+    List<Messages.LeaderEntry> topBest(int limit) throws SQLException;
+
+    UserStats loadOrCreateStats(String userId) throws SQLException;
+
+    /** Накопленные дельты статистики: kills/area прибавляются, best_* — максимум со старым значением. */
+    void applyStats(String userId, long addKills, long addArea, int bestKillsInGameCandidate, int bestKillStreakCandidate) throws SQLException;
+
+    /** {@code true}, если достижение открыто только что (а не было открыто раньше). */
+    boolean unlockAchievement(String userId, String code) throws SQLException;
+
+    List<String> listAchievementCodes(String userId) throws SQLException;
+
+    /** Проверка имени и пароля при регистрации; текст ошибки или {@code null}. */
+    static String validateRegistration(String username, String password) {
+        if (username.length() < 3 || username.length() > 24) return "username must be 3..24 chars";
+        if (!username.matches("[a-zA-Z0-9_\\-]+")) return "username allowed: [a-zA-Z0-9_-]";
+        if (password == null || password.length() < 6) return "password must be >= 6 chars";
+        return null;
+    }
+
+    static String normalize(String s) { return s == null ? "" : s.trim(); }
+
+    record UserStats(long kills, long area, int bestKillsInGame, int bestKillStreak) {}
+
+    record RegisterResult(boolean ok, String userId, String username, int bestScore, String error) {
+        public static RegisterResult ok(String id, String u, int best) { return new RegisterResult(true, id, u, best, null); }
+        public static RegisterResult error(String msg) { return new RegisterResult(false, null, null, 0, msg); }
+    }
+
+    record LoginResult(boolean ok, String userId, String username, int bestScore, String error) {
+        public static LoginResult ok(String id, String u, int best) { return new LoginResult(true, id, u, best, null); }
+        public static LoginResult error(String msg) { return new LoginResult(false, null, null, 0, msg); }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.paperfx.server;
+
+import com.example.paperfx.common.Messages;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Обёртка над {@link Storage}, которая пишет в {@link Metrics} время и ошибки каждого вызова
+ * ({@code paperfx_storage_call_seconds{op}}, {@code paperfx_storage_errors_total{op}})
+ * и событие JFR {@link ServerEvents.StorageCall}.
+ */
+
+final class TimedStorage implements Storage {
+    private interface Call<T> { T run() throws SQLException; }
+
+    private final Storage inner;
+    private final Metrics metrics;
+
+    TimedStorage(Storage inner, Metrics metrics) {
+        this.inner = inner;
+        this.metrics = metrics;
+    }
+
+    private <T> T timed(String op, Call<T> call) throws SQLException {
+        ServerEvents.StorageCall ev = new ServerEvents.StorageCall();
+        ev.begin();
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            T r = call.run();
+            ok = true;
+            return r;
+        } catch (SQLException | RuntimeException e) {
+            metrics.counter("paperfx_storage_errors_total", "Failed storage calls", "op", op).inc();
+            throw e;
+        } finally {
+            metrics.histogram("paperfx_storage_call_seconds", "Storage call latency", Metrics.SECONDS, "op", op)
+                    .observeNanos(System.nanoTime() - t0);
+            ev.end();
+            if (ev.shouldCommit()) {
+                ev.op = op;
+                ev.ok = ok;
+                ev.commit();
+            }
+        }
+    }
+
+    @Override
+    public void init() throws SQLException {
+        timed("init", () -> { inner.init(); return null; });
+    }
+
+    @Override
+    public RegisterResult register(String username, String password) throws SQLException {
+        return timed("register", () -> inner.register(username, password));
+    }
+
+    @Override
+    public LoginResult login(String username, String password) throws SQLException {
+        return timed("login", () -> inner.login(username, password));
+    }
+
+    @Override
+    public void recordResult(String userId, int score) throws SQLException {
+        timed("recordResult", () -> { inner.recordResult(userId, score); return null; });
+    }
+
+    @Override
+    public List<Messages.LeaderEntry> topBest(int limit) throws SQLException {
+        return timed("topBest", () -> inner.topBest(limit));
+    }
+
+    @Override
+    public UserStats loadOrCreateStats(String userId) throws SQLException {
+        return timed("loadOrCreateStats", () -> inner.loadOrCreateStats(userId));
+    }
+
+    @Override
+    public void applyStats(String userId, long addKills, long addArea, int bestKillsInGameCandidate, int bestKillStreakCandidate) throws SQLException {
+        timed("applyStats", () -> {
+            inner.applyStats(userId, addKills, addArea, bestKillsInGameCandidate, bestKillStreakCandidate);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean unlockAchievement(String userId, String code) throws SQLException {
+        return timed("unlockAchievement", () -> inner.unlockAchievement(userId, code));
+    }
+
+    @Override
+    public List<String> listAchievementCodes(String userId) throws SQLException {
+        return timed("listAchievementCodes", () -> inner.listAchievementCodes(userId));
+    }
+}
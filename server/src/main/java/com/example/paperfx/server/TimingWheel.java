@@ -0,0 +1,79 @@
+package com.example.paperfx.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Колесо таймеров для периодических задач игрового цикла (шаги комнат с разным периодом).
+ * <p>
+ * Задача с периодом {@code k} тиков лежит в ячейке {@code due % size}; за тик просматривается только одна ячейка,
+ * так что стоимость тика пропорциональна числу задач, которым пора, а не числу всех комнат. Периоды длиннее
+ * колеса тоже работают: задача просто остаётся в ячейке до своего тика. Удаление ленивое — запись помечается
+ * и выбрасывается при следующем проходе по её ячейке.
+ */
+
+final class TimingWheel<T> {
+    private static final class Entry<T> {
+        final T item;
+        final int period;
+        long due;
+        boolean removed;
+
+        Entry(T item, int period, long due) {
+            this.item = item;
+            this.period = period;
+            this.due = due;
+        }
+    }
+
+    private final List<ArrayList<Entry<T>>> slots;
+    private final HashMap<T, Entry<T>> entries = new HashMap<>();
+    /** Последний обработанный тик. */
+    private long now = 0;
+
+    TimingWheel(int size) {
+        slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) slots.add(new ArrayList<>());
+    }
+
+    /**
+     * Ставит задачу с периодом {@code periodTicks}; первый раз она сработает через {@code delayTicks} (от 1) тиков.
+     * Повторная постановка той же задачи ничего не меняет.
+     */
+    synchronized void add(T item, int periodTicks, int delayTicks) {
+        if (entries.containsKey(item)) return;
+        Entry<T> e = new Entry<>(item, Math.max(1, periodTicks), now + Math.max(1, delayTicks));
+        entries.put(item, e);
+        slot(e.due).add(e);
+    }
+
+    synchronized void remove(T item) {
+        Entry<T> e = entries.remove(item);
+        if (e != null) e.removed = true;
+    }
+
+    synchronized int size() { return entries.size(); }
+
+    /** Переходит к тику {@code tick} и дописывает в {@code out} задачи, которым пора; их следующий срок — через период. */
+    synchronized void advance(long tick, List<T> out) {
+        now = tick;
+        ArrayList<Entry<T>> slot = slot(tick);
+        int kept = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            Entry<T> e = slot.get(i);
+            if (e.removed) continue;
+            if (e.due > tick) { slot.set(kept++, e); continue; }
+            out.add(e.item);
+            e.due = tick + e.period;
+            ArrayList<Entry<T>> next = slot(e.due);
+            if (next == slot) slot.set(kept++, e);
+            else next.add(e);
+        }
+        slot.subList(kept, slot.size()).clear();
+    }
+
+    private ArrayList<Entry<T>> slot(long tick) {
+        return slots.get((int) Math.floorMod(tick, (long) slots.size()));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.paperfx.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Снижение и восстановление частоты рассылки {@link SendRate} и база дельт. */
+class SendRateTest {
+    private static final RttTracker NO_RTT = new RttTracker();
+
+    /** Один тик рассылки так, как его делает игровой цикл. */
+    private static boolean tick(SendRate r, long tick, int backlog, RttTracker rtt) {
+        if (!r.due(tick, backlog, rtt)) return false;
+        r.sent(tick, 0, tick);
+        return true;
+    }
+
+    @Test
+    void healthyClientGetsEveryTick() {
+        SendRate r = new SendRate();
+        for (long t = 1; t <= 100; t++) assertTrue(tick(r, t, 0, NO_RTT), "tick " + t);
+        assertEquals(1, r.every());
+    }
+
+    @Test
+    void backlogHalvesRateAtMostOncePerHold() {
+        SendRate r = new SendRate();
+        int backlog = SendRate.BACKLOG_HIGH + 1;
+        assertTrue(tick(r, 1, backlog, NO_RTT));
+        assertEquals(2, r.every());
+
+        for (long t = 2; t < 1 + SendRate.HOLD_TICKS; t++) r.due(t, backlog, NO_RTT);
+        assertEquals(2, r.every());
+        r.due(1 + SendRate.HOLD_TICKS, backlog, NO_RTT);
+        assertEquals(4, r.every());
+
+        for (long t = 100; t < 200; t++) r.due(t, backlog, NO_RTT);
+        assertEquals(SendRate.MAX_EVERY, r.every());
+    }
+
+    @Test
+    void notDueUntilIntervalPasses() {
+        SendRate r = new SendRate();
+        int backlog = SendRate.BACKLOG_HIGH + 1;
+        tick(r, 1, backlog, NO_RTT);
+        r.due(1 + SendRate.HOLD_TICKS, backlog, NO_RTT);
+        assertEquals(4, r.every());
+
+        r.sent(20, 0, 20);
+        assertFalse(r.due(21, 1, NO_RTT));
+        assertFalse(r.due(23, 1, NO_RTT));
+        assertTrue(r.due(24, 1, NO_RTT));
+    }
+
+    @Test
+    void highRttSlowsDownAndRecoveryDoublesBack() {
+        RttTracker slow = new RttTracker();
+        slow.onPong(0, 0, -1, (long) ((SendRate.RTT_HIGH_MS + 100) * 1e6));
+        SendRate r = new SendRate();
+        r.due(1, 0, slow);
+        assertEquals(2, r.every());
+
+        // Последний замер хороший, но восстановление — только после RECOVER_TICKS здоровых тиков подряд.
+        long t = 2;
+        for (int i = 1; i < SendRate.RECOVER_TICKS; i++) r.due(t++, 0, NO_RTT);
+        assertEquals(2, r.every());
+        r.due(t++, 1, NO_RTT); // небольшая очередь: не «плохо», но и не «здоров» — счётчик сначала
+        for (int i = 1; i < SendRate.RECOVER_TICKS; i++) r.due(t++, 0, NO_RTT);
+        assertEquals(2, r.every());
+        r.due(t, 0, NO_RTT);
+        assertEquals(1, r.every());
+    }
+
+    @Test
+    void baseTickIsPerEpoch() {
+        SendRate r = new SendRate();
+        assertEquals(-1, r.baseTick(0));
+        r.sent(5, 0, 4);
+        assertEquals(4, r.baseTick(0));
+        assertEquals(-1, r.baseTick(1));
+        r.sent(6, 1, 100);
+        assertEquals(100, r.baseTick(1));
+        assertEquals(-1, r.baseTick(0));
+    }
+
+    @Test
+    void roomChangeRestartsTickCount() {
+        SendRate r = new SendRate();
+        int backlog = SendRate.BACKLOG_HIGH + 1;
+        tick(r, 1, backlog, NO_RTT);
+        assertEquals(2, r.every());
+        r.sent(500, 0, 500);
+        assertFalse(r.due(501, 1, NO_RTT));
+        // В новой комнате тики начинаются заново — первый же state уходит сразу.
+        assertTrue(r.due(3, 1, NO_RTT));
+    }
+}
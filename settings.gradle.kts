@@ -1,2 +1,2 @@
 rootProject.name = "paperfx"
-include("common", "server", "client")
+include("common", "server", "client", "bench", "loadgen")